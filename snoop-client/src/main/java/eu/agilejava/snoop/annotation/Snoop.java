@@ -23,6 +23,7 @@
  */
 package eu.agilejava.snoop.annotation;
 
+import eu.agilejava.snoop.client.Balancer;
 import java.lang.annotation.Documented;
 import static java.lang.annotation.ElementType.FIELD;
 import static java.lang.annotation.ElementType.METHOD;
@@ -51,4 +52,63 @@ public @interface Snoop {
     */
    @Nonbinding
    String serviceName() default "";
+
+   /**
+    * The strategy for choosing which instance of the service to call.
+    *
+    * @return The load balancing strategy
+    */
+   @Nonbinding
+   Balancer balancer() default Balancer.RANDOM;
+
+   /**
+    * The number of times a failed GET or DELETE is retried on another instance of the service.
+    *
+    * @return The number of retries, 0 to not retry
+    */
+   @Nonbinding
+   int retries() default 0;
+
+   /**
+    * The percentile of the recent latencies of the service after which a GET or DELETE that has not been answered is
+    * hedged by sending the same request to another instance.
+    *
+    * @return The percentile, for example 95, or 0 to not hedge
+    */
+   @Nonbinding
+   double hedgePercentile() default 0;
+
+   /**
+    * The time to wait for a connection to an instance of the service.
+    *
+    * @return The connect timeout in milliseconds, or 0 to use connectTimeout from the Snoop configuration
+    */
+   @Nonbinding
+   int connectTimeout() default 0;
+
+   /**
+    * The time to wait for a response from an instance of the service once connected.
+    *
+    * @return The read timeout in milliseconds, or 0 to use readTimeout from the Snoop configuration
+    */
+   @Nonbinding
+   int readTimeout() default 0;
+
+   /**
+    * The deadline of a call to the service, including looking it up, retries and hedged requests. What is left of the
+    * deadline is passed on to the service in the X-Snoop-Deadline header.
+    *
+    * @return The deadline in milliseconds, or 0 to use timeout from the Snoop configuration
+    */
+   @Nonbinding
+   long timeout() default 0;
+
+   /**
+    * Whether calls to the service, and to each of its instances, are bounded by an adaptive concurrency limit. Calls
+    * beyond the limit fail at once instead of queueing up behind a degraded service.
+    *
+    * @return true to limit concurrency
+    */
+   @Nonbinding
+   boolean concurrencyLimit() default false;
 }
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The load balancing strategies available for a Snoop service client.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public enum Balancer {
+
+    /**
+     * Picks an instance at random.
+     */
+    RANDOM {
+        @Override
+        public LoadBalancer create() {
+            return (instances, stats) -> instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+        }
+    },
+    /**
+     * Picks the instances in turn.
+     */
+    ROUND_ROBIN {
+        @Override
+        public LoadBalancer create() {
+            final AtomicInteger next = new AtomicInteger();
+            return (instances, stats) -> instances.get(Math.floorMod(next.getAndIncrement(), instances.size()));
+        }
+    },
+    /**
+     * Picks two instances at random and chooses the one with the fewest calls in flight.
+     */
+    POWER_OF_TWO_CHOICES {
+        @Override
+        public LoadBalancer create() {
+            return (instances, stats) -> {
+                if (instances.size() == 1) {
+                    return instances.get(0);
+                }
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                final int first = random.nextInt(instances.size());
+                final int second = (first + 1 + random.nextInt(instances.size() - 1)) % instances.size();
+
+                return stats.of(instances.get(first)).getInFlight() <= stats.of(instances.get(second)).getInFlight()
+                        ? instances.get(first)
+                        : instances.get(second);
+            };
+        }
+    },
+    /**
+     * Picks the instance with the lowest average latency, weighted by the calls in flight. Instances that have not
+     * been called yet are tried first.
+     */
+    LEAST_LATENCY {
+        @Override
+        public LoadBalancer create() {
+            return (instances, stats) -> {
+                SnoopConfig best = instances.get(0);
+                double bestCost = Double.MAX_VALUE;
+
+                for (SnoopConfig instance : instances) {
+                    final InstanceStats instanceStats = stats.of(instance);
+                    final double cost = instanceStats.getLatency() * (instanceStats.getInFlight() + 1);
+                    if (cost < bestCost) {
+                        best = instance;
+                        bestCost = cost;
+                    }
+                }
+                return best;
+            };
+        }
+    };
+
+    /**
+     * Creates a load balancer using this strategy.
+     *
+     * @return a new load balancer
+     */
+    public abstract LoadBalancer create();
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit on the number of concurrent calls to a service or to one of its instances.
+ *
+ * The limit is adjusted with additive increase and multiplicative decrease. It grows by about one per round trip while
+ * calls succeed and the limit is in use. Calls are measured in windows of at least ten calls and at least one round
+ * trip. At the end of a window the limit shrinks by a tenth, at most once per window, if the average round trip time
+ * of the window is more than twice the baseline, which is the sign of requests queueing up downstream, or if more than
+ * a tenth of the calls failed. The baseline is a slow moving average of the round trip times of the windows, so the
+ * limit follows lasting changes in the service. Calls beyond the limit are rejected at once instead of queueing.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public final class ConcurrencyLimit {
+
+    private static final int MIN_LIMIT = 1;
+    private static final int MAX_LIMIT = 1000;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double RTT_TOLERANCE = 2;
+    private static final double FAILURE_TOLERANCE = 0.1;
+    private static final double BASELINE_WEIGHT = 0.05;
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final long MIN_WINDOW = 100_000_000;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+    private double baselineRtt;
+    private long windowStart;
+    private long windowRtt;
+    private int windowSamples;
+    private int windowFailures;
+
+    /**
+     * @param initialLimit The limit to start from
+     */
+    ConcurrencyLimit(final int initialLimit) {
+        this.limit = initialLimit;
+    }
+
+    /**
+     * The current limit.
+     *
+     * @return the number of concurrent calls allowed
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * The number of calls that have been let through and not completed yet.
+     *
+     * @return the number of calls in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * The number of calls that were rejected because the limit was reached.
+     *
+     * @return the number of rejected calls
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Tells if the limit has been reached.
+     *
+     * @return true if a call would be rejected
+     */
+    boolean isSaturated() {
+        return inFlight.get() >= (int) limit;
+    }
+
+    /**
+     * Lets a call through unless the limit has been reached.
+     *
+     * @return true if the call may be made, and must then be completed with {@link #release(long, boolean)} or
+     * {@link #cancel()}
+     */
+    boolean tryAcquire() {
+
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        return true;
+    }
+
+    /**
+     * Completes a call that was never made.
+     */
+    void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Completes a call and adjusts the limit.
+     *
+     * @param rtt The round trip time of the call in nanoseconds
+     * @param success Whether the call succeeded
+     */
+    void release(final long rtt, final boolean success) {
+        release(rtt, success, System.nanoTime());
+    }
+
+    void release(final long rtt, final boolean success, final long now) {
+        update(rtt, success, inFlight.getAndDecrement(), now);
+    }
+
+    private synchronized void update(final long rtt, final boolean success, final int concurrent, final long now) {
+
+        if (windowSamples == 0) {
+            windowStart = now;
+        }
+        windowSamples++;
+        if (success) {
+            windowRtt += rtt;
+            if (concurrent * 2 >= limit) {
+                limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+            }
+        } else {
+            windowFailures++;
+        }
+
+        if (windowSamples >= MIN_WINDOW_SAMPLES && now - windowStart >= Math.max(MIN_WINDOW, baselineRtt)) {
+            final int successes = windowSamples - windowFailures;
+            final double averageRtt = successes > 0 ? (double) windowRtt / successes : 0;
+
+            if (windowFailures > windowSamples * FAILURE_TOLERANCE
+                    || baselineRtt > 0 && averageRtt > baselineRtt * RTT_TOLERANCE) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+            }
+            if (successes > 0) {
+                baselineRtt = baselineRtt == 0 ? averageRtt : baselineRtt + BASELINE_WEIGHT * (averageRtt - baselineRtt);
+            }
+
+            windowRtt = 0;
+            windowSamples = 0;
+            windowFailures = 0;
+        }
+    }
+}
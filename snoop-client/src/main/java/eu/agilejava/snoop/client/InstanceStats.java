@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics and circuit breaker for calls made to one instance of a service.
+ *
+ * The circuit opens after a number of consecutive failures, or when the instance is ejected as a latency outlier, and
+ * the instance is then left out of the candidates for a while. The ejection time grows each time the instance is
+ * ejected again. When it is up, one trial call is let through: if it succeeds the circuit closes, otherwise it opens
+ * again. Calls to the instance may also be bounded by an adaptive concurrency limit, for clients that enable it.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public final class InstanceStats {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long BASE_EJECTION_TIME = 30000;
+    private static final long MAX_EJECTION_TIME = 300000;
+    private static final int INITIAL_LIMIT = 20;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean trial = new AtomicBoolean();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    private final ConcurrencyLimit limit = new ConcurrencyLimit(INITIAL_LIMIT);
+    private volatile double latency;
+    private volatile int ejectionMultiplier;
+    private volatile long ejectedUntil;
+
+    /**
+     * The number of calls to the instance that have not completed yet.
+     *
+     * @return the number of calls in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * The exponentially weighted moving average of the latency of calls to the instance.
+     *
+     * @return the latency in milliseconds, or 0 if no call has completed yet
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * The number of times the instance has been ejected.
+     *
+     * @return the number of ejections
+     */
+    public long getEjections() {
+        return ejections.sum();
+    }
+
+    /**
+     * The concurrency limit of the instance.
+     *
+     * @return the limit
+     */
+    public ConcurrencyLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * The state of the circuit breaker.
+     *
+     * @return the state
+     */
+    public State getState() {
+        final long until = ejectedUntil;
+
+        if (until == 0) {
+            return State.CLOSED;
+        }
+        return System.currentTimeMillis() < until ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /**
+     * Tells if the instance may be called. A half open instance may be called if no trial call is in flight, and no
+     * instance may be called once its concurrency limit is reached.
+     *
+     * @return true if the instance may be called
+     */
+    boolean isAvailable() {
+        final State state = getState();
+        return (state == State.CLOSED || state == State.HALF_OPEN && !trial.get()) && !limit.isSaturated();
+    }
+
+    /**
+     * Records the start of a call.
+     *
+     * @return the start time to pass to {@link #finish(long, boolean)}
+     */
+    long start() {
+        if (getState() == State.HALF_OPEN) {
+            trial.set(true);
+        }
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the completion of a call.
+     *
+     * @param start The start time returned by {@link #start()}
+     * @param success Whether the call succeeded
+     */
+    void finish(final long start, final boolean success) {
+        inFlight.decrementAndGet();
+        final long nanos = System.nanoTime() - start;
+        final double millis = nanos / 1_000_000d;
+
+        if (success) {
+            successes.increment();
+            consecutiveFailures.set(0);
+            if (getState() == State.HALF_OPEN) {
+                close(millis);
+            } else {
+                record(millis);
+            }
+        } else {
+            failures.increment();
+            record(millis);
+            if (getState() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD) {
+                eject();
+            }
+        }
+    }
+
+    /**
+     * Opens the circuit and ejects the instance from the candidates.
+     */
+    synchronized void eject() {
+        ejectionMultiplier++;
+        ejectedUntil = System.currentTimeMillis() + Math.min(BASE_EJECTION_TIME * ejectionMultiplier, MAX_EJECTION_TIME);
+        consecutiveFailures.set(0);
+        trial.set(false);
+        ejections.increment();
+    }
+
+    /**
+     * Closes the circuit after a successful trial call, starting over with the latency of that call.
+     */
+    private synchronized void close(final double millis) {
+        ejectedUntil = 0;
+        ejectionMultiplier = Math.max(0, ejectionMultiplier - 1);
+        latency = millis;
+        trial.set(false);
+    }
+
+    private synchronized void record(final double millis) {
+        latency = latency == 0 ? millis : latency + EWMA_WEIGHT * (millis - latency);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latencies of the most recent calls to a service, used to tell when a call is slower than usual.
+ *
+ * The percentile is recomputed every few samples rather than on every read, so reading it is cheap.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+final class LatencyWindow {
+
+    private static final int SIZE = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_INTERVAL = 32;
+
+    private final double percentile;
+    private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+    private final AtomicLong count = new AtomicLong();
+    private volatile long value = -1;
+
+    /**
+     * @param percentile The percentile to track, between 0 and 100
+     */
+    LatencyWindow(final double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Records the latency of a call.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    void record(final long nanos) {
+
+        final long n = count.getAndIncrement();
+        samples.set((int) (n % SIZE), nanos);
+
+        final long recorded = n + 1;
+        if (recorded == MIN_SAMPLES || recorded > MIN_SAMPLES && recorded % RECOMPUTE_INTERVAL == 0) {
+            recompute(Math.min(recorded, SIZE));
+        }
+    }
+
+    /**
+     * The tracked percentile of the recent latencies.
+     *
+     * @return the latency in nanoseconds, or -1 if too few calls have been recorded
+     */
+    long get() {
+        return value;
+    }
+
+    private void recompute(final long size) {
+
+        final long[] sorted = new long[(int) size];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        value = sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the extra load that retries and hedged requests put on a service.
+ *
+ * Every call deposits a fraction of a token, and every retry or hedged request withdraws a whole token. The balance
+ * starts at, and is capped by, a reserve that covers bursts. Once the budget is spent, failed calls are not retried and
+ * slow calls are not hedged until enough calls have been made to earn new tokens, so a failing service is not hit by
+ * a retry storm.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public final class RetryBudget {
+
+    private static final long TOKEN = 1000;
+
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param ratio The number of retries and hedged requests allowed per call
+     * @param reserve The number of retries and hedged requests allowed in a burst
+     */
+    RetryBudget(final double ratio, final int reserve) {
+        this.deposit = (long) (ratio * TOKEN);
+        this.maxBalance = reserve * TOKEN;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+    /**
+     * The number of failed calls that were retried on another instance.
+     *
+     * @return the number of retries
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * The number of slow calls that were hedged by a request to another instance.
+     *
+     * @return the number of hedged requests
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * The number of retries and hedged requests that were not made because the budget was spent.
+     *
+     * @return the number of rejected retries and hedged requests
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Records a call, earning a fraction of a token.
+     */
+    void deposit() {
+        balance.accumulateAndGet(deposit, (b, d) -> Math.min(maxBalance, b + d));
+    }
+
+    boolean tryRetry() {
+        if (withdraw()) {
+            retries.increment();
+            return true;
+        }
+        return false;
+    }
+
+    boolean tryHedge() {
+        if (withdraw()) {
+            hedges.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean withdraw() {
+
+        long current;
+        do {
+            current = balance.get();
+            if (current < TOKEN) {
+                rejected.increment();
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - TOKEN));
+
+        return true;
+    }
+}
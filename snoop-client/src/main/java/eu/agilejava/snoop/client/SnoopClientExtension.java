@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import eu.agilejava.snoop.annotation.Snoop;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.AfterDeploymentValidation;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.Extension;
+import javax.enterprise.inject.spi.ProcessInjectionPoint;
+
+/**
+ * CDI Extension that collects the services injected with @Snoop, and has them looked up in the background as soon as
+ * the application is deployed so that the first calls to them need not wait for the lookup.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopClientExtension implements Extension {
+
+    private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+
+    private final Set<String> serviceNames = new ConcurrentSkipListSet<>();
+
+    <T, X> void processInjectionPoint(@Observes ProcessInjectionPoint<T, X> pip) {
+
+        pip.getInjectionPoint().getQualifiers().stream()
+                .filter(qualifier -> qualifier instanceof Snoop)
+                .map(qualifier -> ((Snoop) qualifier).serviceName())
+                .filter(serviceName -> !serviceName.isEmpty())
+                .forEach(serviceName -> {
+                    LOGGER.config(() -> "Found @Snoop injection point for " + serviceName);
+                    serviceNames.add(serviceName);
+                });
+    }
+
+    void afterDeploymentValidation(@Observes AfterDeploymentValidation adv, BeanManager bm) {
+
+        final Bean<?> bean = bm.resolve(bm.getBeans(SnoopProducer.class));
+        final SnoopProducer producer = (SnoopProducer) bm.getReference(bean, SnoopProducer.class, bm.createCreationalContext(bean));
+
+        producer.warmUp(serviceNames);
+    }
+}
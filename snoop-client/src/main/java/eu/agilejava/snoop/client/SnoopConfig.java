@@ -26,6 +26,9 @@ package eu.agilejava.snoop.client;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
@@ -38,9 +41,31 @@ import javax.json.stream.JsonGenerator;
  */
 public class SnoopConfig {
 
+    /**
+     * The WebSocket subprotocol of the binary wire format understood by the Snoop Service.
+     */
+    public static final String BINARY_SUBPROTOCOL = "snoop-binary";
+    private static final byte BINARY_CONFIG = 1;
+    private static final byte BINARY_HEARTBEAT = 2;
+
+    private String instanceId;
     private String serviceName;
     private String serviceHome;
     private String serviceRoot;
+    private long leaseTtl;
+
+    /**
+     * The id of this particular instance of the service. Defaults to the service home if not set.
+     *
+     * @return The instance id
+     */
+    public String getInstanceId() {
+        return instanceId != null ? instanceId : serviceHome;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
 
     public String getServiceName() {
         return serviceName;
@@ -66,32 +91,135 @@ public class SnoopConfig {
         this.serviceRoot = serviceRoot;
     }
 
+    /**
+     * The lease the instance asks for. The Snoop Service keeps it within its own minimum and maximum.
+     *
+     * @return the lease in milliseconds, or 0 to use the lease advised by the Snoop Service
+     */
+    public long getLeaseTtl() {
+        return leaseTtl;
+    }
+
+    public void setLeaseTtl(long leaseTtl) {
+        this.leaseTtl = leaseTtl;
+    }
+
+    /**
+     * The hash of the configuration. It matches the hash computed by the Snoop Service, so it can be sent instead of
+     * the configuration with heartbeats.
+     * The lease is only included if declared.
+     *
+     * @return the hash
+     */
+    @Override
+    public int hashCode() {
+        final int hash = Objects.hash(getInstanceId(), serviceName, serviceHome, serviceRoot);
+        return leaseTtl > 0 ? 31 * hash + Long.hashCode(leaseTtl) : hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final SnoopConfig other = (SnoopConfig) obj;
+        return Objects.equals(getInstanceId(), other.getInstanceId())
+                && Objects.equals(serviceName, other.serviceName)
+                && Objects.equals(serviceHome, other.serviceHome)
+                && Objects.equals(serviceRoot, other.serviceRoot)
+                && leaseTtl == other.leaseTtl;
+    }
+
     public String toJSON() {
 
         Writer w = new StringWriter();
         try (JsonGenerator generator = Json.createGenerator(w)) {
 
             generator.writeStartObject()
+                    .write("instanceId", getInstanceId())
                     .write("serviceName", serviceName)
                     .write("serviceHome", serviceHome)
-                    .write("serviceRoot", serviceRoot)
-                    .writeEnd();
+                    .write("serviceRoot", serviceRoot);
+            if (leaseTtl > 0) {
+                generator.write("leaseTtl", leaseTtl);
+            }
+            generator.writeEnd();
         }
 
         return w.toString();
     }
 
-    public static SnoopConfig fromJSON(String json) {
+    /**
+     * Writes the configuration in the binary wire format: its type followed by the fields as strings of a two byte
+     * length and UTF-8 bytes, and the declared lease as an eight byte integer if there is one.
+     *
+     * @return the message
+     */
+    public ByteBuffer toBinary() {
+
+        final byte[][] fields = {utf8(getInstanceId()), utf8(serviceName), utf8(serviceHome), utf8(serviceRoot)};
+        int size = leaseTtl > 0 ? 1 + 8 : 1;
+        for (byte[] field : fields) {
+            size += 2 + field.length;
+        }
 
-        SnoopConfig config = new SnoopConfig();
+        final ByteBuffer message = ByteBuffer.allocate(size).put(BINARY_CONFIG);
+        for (byte[] field : fields) {
+            message.putShort((short) field.length).put(field);
+        }
+        if (leaseTtl > 0) {
+            message.putLong(leaseTtl);
+        }
+        message.flip();
+        return message;
+    }
+
+    /**
+     * Writes a heartbeat in the binary wire format: its type, the instance id and the hash of the configuration.
+     *
+     * @return the message
+     */
+    public ByteBuffer toBinaryHeartbeat() {
+
+        final byte[] id = utf8(getInstanceId());
+        final ByteBuffer message = ByteBuffer.allocate(1 + 2 + id.length + 4)
+                .put(BINARY_HEARTBEAT)
+                .putShort((short) id.length)
+                .put(id)
+                .putInt(hashCode());
+        message.flip();
+        return message;
+    }
+
+    private static byte[] utf8(final String field) {
+
+        final byte[] bytes = field != null ? field.getBytes(UTF_8) : new byte[0];
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Field too long for the binary wire format: " + field);
+        }
+        return bytes;
+    }
+
+    public static SnoopConfig fromJSON(String json) {
 
         try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return fromJSON(reader.readObject());
+        }
+    }
 
-            JsonObject configJson = reader.readObject();
+    public static SnoopConfig fromJSON(JsonObject configJson) {
+
+        SnoopConfig config = new SnoopConfig();
 
-            config.setServiceName(configJson.getString("serviceName"));
-            config.setServiceHome(configJson.getString("serviceHome"));
-            config.setServiceRoot(configJson.getString("serviceRoot"));
+        config.setServiceName(configJson.getString("serviceName"));
+        config.setServiceHome(configJson.getString("serviceHome"));
+        config.setServiceRoot(configJson.getString("serviceRoot"));
+        config.setInstanceId(configJson.getString("instanceId", config.getServiceHome()));
+        if (configJson.containsKey("leaseTtl")) {
+            config.setLeaseTtl(configJson.getJsonNumber("leaseTtl").longValue());
         }
 
         return config;
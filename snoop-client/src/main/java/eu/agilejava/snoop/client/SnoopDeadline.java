@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * The deadline of the request being served by the current thread, as propagated by the caller in the
+ * {@value #HEADER} header.
+ *
+ * Calls made with {@link SnoopServiceClient} on the same thread finish before this deadline, and pass what is left of
+ * it on to the services they call.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public final class SnoopDeadline {
+
+    /**
+     * The header carrying the number of milliseconds left until the deadline of a call.
+     */
+    public static final String HEADER = "X-Snoop-Deadline";
+
+    static final long NONE = Long.MAX_VALUE;
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private SnoopDeadline() {
+    }
+
+    /**
+     * Sets the deadline of the request being served by the current thread.
+     *
+     * @param remaining The number of milliseconds left until the deadline
+     */
+    public static void set(final long remaining) {
+        DEADLINE.set(System.nanoTime() + MILLISECONDS.toNanos(remaining));
+    }
+
+    /**
+     * Clears the deadline of the current thread.
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * The number of milliseconds left until the deadline of the request being served by the current thread.
+     *
+     * @return the remaining milliseconds, or {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public static long remaining() {
+        final Long deadline = DEADLINE.get();
+        return deadline != null ? NANOSECONDS.toMillis(deadline - System.nanoTime()) : NONE;
+    }
+
+    /**
+     * Gets the deadline of a call, which is the earliest of the deadline of the current thread and the given timeout.
+     *
+     * @param timeout The timeout of the call in milliseconds, or 0 for none
+     * @return the deadline as a {@link System#nanoTime()} value, or {@link #NONE}
+     */
+    static long of(final long timeout) {
+
+        final long remaining = Math.min(remaining(), timeout > 0 ? timeout : NONE);
+        return remaining != NONE ? System.nanoTime() + MILLISECONDS.toNanos(remaining) : NONE;
+    }
+
+    /**
+     * The number of milliseconds left until a deadline.
+     *
+     * @param deadline The deadline returned by {@link #of(long)}
+     * @return the remaining milliseconds, or {@link #NONE} if there is no deadline
+     */
+    static long remaining(final long deadline) {
+        return deadline != NONE ? NANOSECONDS.toMillis(deadline - System.nanoTime()) : NONE;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * The statistics of all service instances called by the clients of a producer.
+ *
+ * Also decides which instances are candidates for a call. Instances with an open circuit or at their concurrency limit
+ * are left out, and instances that are much slower than their peers are ejected as outliers. At most half of the
+ * instances of a service are ejected for latency, and if no instance is available all of them are candidates.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopInstanceStats {
+
+    private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+    private static final int MAX_INSTANCES = 4096;
+    private static final int OUTLIER_MIN_INSTANCES = 3;
+    private static final double OUTLIER_FACTOR = 3;
+    private static final double OUTLIER_MIN_LATENCY = 50;
+    private static final int INITIAL_SERVICE_LIMIT = 100;
+
+    private final Map<String, InstanceStats> instances = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the statistics of an instance.
+     *
+     * @param instance The instance
+     * @return the statistics
+     */
+    public InstanceStats of(final SnoopConfig instance) {
+
+        final String key = instance.getServiceName() + "/" + instance.getInstanceId();
+        InstanceStats stats = instances.get(key);
+
+        if (stats == null) {
+            if (instances.size() >= MAX_INSTANCES) {
+                instances.clear();
+            }
+            stats = instances.computeIfAbsent(key, k -> new InstanceStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Gets the concurrency limit of all calls to a service, across its instances.
+     *
+     * @param serviceName The name of the service
+     * @return the limit
+     */
+    public ConcurrencyLimit limitOf(final String serviceName) {
+        return limits.computeIfAbsent(serviceName, k -> new ConcurrencyLimit(INITIAL_SERVICE_LIMIT));
+    }
+
+    /**
+     * Gets the instances that are candidates for a call.
+     *
+     * @param instances The instances of the service
+     * @return the candidates
+     */
+    List<SnoopConfig> available(final List<SnoopConfig> instances) {
+
+        if (instances.size() >= OUTLIER_MIN_INSTANCES) {
+            ejectOutliers(instances);
+        }
+
+        final List<SnoopConfig> available = instances.stream()
+                .filter(instance -> of(instance).isAvailable())
+                .collect(Collectors.toList());
+
+        return available.isEmpty() ? instances : available;
+    }
+
+    private void ejectOutliers(final List<SnoopConfig> instances) {
+
+        final double[] latencies = instances.stream()
+                .map(this::of)
+                .filter(stats -> stats.getState() == InstanceStats.State.CLOSED && stats.getLatency() > 0)
+                .mapToDouble(InstanceStats::getLatency)
+                .sorted()
+                .toArray();
+
+        if (latencies.length < OUTLIER_MIN_INSTANCES) {
+            return;
+        }
+
+        final double threshold = Math.max(latencies[latencies.length / 2] * OUTLIER_FACTOR, OUTLIER_MIN_LATENCY);
+        long ejected = instances.stream()
+                .filter(instance -> of(instance).getState() != InstanceStats.State.CLOSED)
+                .count();
+
+        for (SnoopConfig instance : instances) {
+            final InstanceStats stats = of(instance);
+
+            if (ejected < instances.size() / 2 && stats.getState() == InstanceStats.State.CLOSED && stats.getLatency() > threshold) {
+                stats.eject();
+                ejected++;
+                LOGGER.warning(() -> "Ejected " + instance.getInstanceId() + " of " + instance.getServiceName()
+                        + " with latency " + stats.getLatency() + " ms");
+            }
+        }
+    }
+}
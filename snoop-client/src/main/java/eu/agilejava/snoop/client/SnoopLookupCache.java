@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Cache for looking up the instances of services from the Snoop Service.
+ *
+ * Entries are fresh for the configured time to live. A stale entry is served for up to the configured max stale time
+ * while it is refreshed in the background, and it is also served if the refresh fails. Concurrent lookups of the same
+ * service share one call to the Snoop Service.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopLookupCache {
+
+    private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+
+    private final long ttl;
+    private final long maxStale;
+    private final Executor executor;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<List<SnoopConfig>>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param ttl The time in milliseconds an entry is fresh
+     * @param maxStale The time in milliseconds a stale entry may be served after it expired
+     * @param executor The executor for background refreshes
+     */
+    SnoopLookupCache(final long ttl, final long maxStale, final Executor executor) {
+        this.ttl = ttl;
+        this.maxStale = maxStale;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the instances of a service.
+     *
+     * @param serviceName The service name
+     * @param loader Looks up the instances from the Snoop Service
+     * @return the instances
+     * @throws SnoopServiceUnavailableException if the lookup failed and there is no usable entry
+     */
+    List<SnoopConfig> get(final String serviceName, final Supplier<List<SnoopConfig>> loader) throws SnoopServiceUnavailableException {
+
+        final long now = System.currentTimeMillis();
+        final Entry entry = entries.get(serviceName);
+
+        if (entry != null && now < entry.getLoadedAt() + ttl) {
+            hits.increment();
+            return entry.getInstances();
+        }
+
+        if (entry != null && now < entry.getLoadedAt() + ttl + maxStale) {
+            staleHits.increment();
+            refresh(serviceName, loader);
+            return entry.getInstances();
+        }
+
+        misses.increment();
+        try {
+            return load(serviceName, loader).join();
+
+        } catch (CompletionException e) {
+            if (entry != null) {
+                LOGGER.warning(() -> "Serving stale instances of " + serviceName + ": " + e.getCause().getMessage());
+                return entry.getInstances();
+            }
+            throw e.getCause() instanceof SnoopServiceUnavailableException
+                    ? (SnoopServiceUnavailableException) e.getCause()
+                    : new SnoopServiceUnavailableException(e.getCause());
+        }
+    }
+
+    /**
+     * Gets the instances of a service without blocking.
+     *
+     * @param serviceName The service name
+     * @param loader Starts looking up the instances from the Snoop Service
+     * @return the instances, completed exceptionally with a {@link SnoopServiceUnavailableException} if the lookup
+     * failed and there is no usable entry
+     */
+    CompletableFuture<List<SnoopConfig>> getAsync(final String serviceName, final Supplier<CompletableFuture<List<SnoopConfig>>> loader) {
+
+        final long now = System.currentTimeMillis();
+        final Entry entry = entries.get(serviceName);
+
+        if (entry != null && now < entry.getLoadedAt() + ttl) {
+            hits.increment();
+            return CompletableFuture.completedFuture(entry.getInstances());
+        }
+
+        if (entry != null && now < entry.getLoadedAt() + ttl + maxStale) {
+            staleHits.increment();
+            loadAsync(serviceName, loader);
+            return CompletableFuture.completedFuture(entry.getInstances());
+        }
+
+        misses.increment();
+        return loadAsync(serviceName, loader).handle((instances, t) -> {
+            if (t == null) {
+                return instances;
+            }
+            final Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+            if (entry != null) {
+                LOGGER.warning(() -> "Serving stale instances of " + serviceName + ": " + cause.getMessage());
+                return entry.getInstances();
+            }
+            throw cause instanceof SnoopServiceUnavailableException
+                    ? (SnoopServiceUnavailableException) cause
+                    : new SnoopServiceUnavailableException(cause);
+        });
+    }
+
+    /**
+     * Puts the current instances of a service in the cache.
+     *
+     * @param serviceName The service name
+     * @param instances The instances
+     */
+    void put(final String serviceName, final List<SnoopConfig> instances) {
+        entries.put(serviceName, new Entry(instances, System.currentTimeMillis()));
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    private void refresh(final String serviceName, final Supplier<List<SnoopConfig>> loader) {
+
+        final CompletableFuture<List<SnoopConfig>> refresh = new CompletableFuture<>();
+
+        if (inFlight.putIfAbsent(serviceName, refresh) == null) {
+            executor.execute(() -> complete(serviceName, loader, refresh));
+        }
+    }
+
+    /**
+     * Loads the instances of a service in the calling thread, or waits for the lookup already in flight.
+     */
+    private CompletableFuture<List<SnoopConfig>> load(final String serviceName, final Supplier<List<SnoopConfig>> loader) {
+
+        final CompletableFuture<List<SnoopConfig>> load = new CompletableFuture<>();
+        final CompletableFuture<List<SnoopConfig>> existing = inFlight.putIfAbsent(serviceName, load);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        complete(serviceName, loader, load);
+        return load;
+    }
+
+    /**
+     * Starts an asynchronous lookup of a service, or returns the lookup already in flight.
+     */
+    private CompletableFuture<List<SnoopConfig>> loadAsync(final String serviceName, final Supplier<CompletableFuture<List<SnoopConfig>>> loader) {
+
+        final CompletableFuture<List<SnoopConfig>> load = new CompletableFuture<>();
+        final CompletableFuture<List<SnoopConfig>> existing = inFlight.putIfAbsent(serviceName, load);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        final CompletableFuture<List<SnoopConfig>> lookup;
+
+        try {
+            lookup = loader.get();
+
+        } catch (RuntimeException e) {
+            failures.increment();
+            load.completeExceptionally(e);
+            inFlight.remove(serviceName, load);
+            return load;
+        }
+
+        lookup.whenComplete((instances, t) -> {
+            if (t == null) {
+                put(serviceName, instances);
+                load.complete(instances);
+            } else {
+                failures.increment();
+                load.completeExceptionally(t);
+            }
+            inFlight.remove(serviceName, load);
+        });
+        return load;
+    }
+
+    private void complete(final String serviceName, final Supplier<List<SnoopConfig>> loader, final CompletableFuture<List<SnoopConfig>> future) {
+
+        try {
+            final List<SnoopConfig> instances = loader.get();
+            put(serviceName, instances);
+            future.complete(instances);
+
+        } catch (RuntimeException e) {
+            failures.increment();
+            future.completeExceptionally(e);
+
+        } finally {
+            inFlight.remove(serviceName, future);
+        }
+    }
+
+    private static final class Entry {
+
+        private final List<SnoopConfig> instances;
+        private final long loadedAt;
+
+        Entry(final List<SnoopConfig> instances, final long loadedAt) {
+            this.instances = instances;
+            this.loadedAt = loadedAt;
+        }
+
+        List<SnoopConfig> getInstances() {
+            return instances;
+        }
+
+        long getLoadedAt() {
+            return loadedAt;
+        }
+    }
+}
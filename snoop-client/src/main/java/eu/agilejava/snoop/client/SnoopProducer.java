@@ -27,15 +27,36 @@ import com.fasterxml.jackson.dataformat.yaml.snakeyaml.Yaml;
 import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
 import eu.agilejava.snoop.SnoopConfigurationException;
 import eu.agilejava.snoop.annotation.Snoop;
+import java.io.StringReader;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.Dependent;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import javax.ws.rs.core.Response;
 
 /**
  * CDI Producer for SnoopServiceClient.
@@ -46,8 +67,24 @@ import javax.enterprise.inject.spi.InjectionPoint;
 public class SnoopProducer {
 
     private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+    private static final long DEFAULT_LOOKUP_TTL = 5000;
+    private static final long DEFAULT_LOOKUP_MAX_STALE = 60000;
+    private static final long DEFAULT_ASYNC_THREAD_POOL_SIZE = 0;
+    private static final long DEFAULT_LOOKUP_TIMEOUT = 5000;
 
     private Map<String, Object> snoopConfig = Collections.EMPTY_MAP;
+    private SnoopReplica replica;
+    private SnoopLookupCache lookupCache;
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+    private int connectTimeout;
+    private int readTimeout;
+    private long timeout;
+    private int lookupTimeout;
+    private SnoopTargets targets;
+    private final SnoopInstanceStats instanceStats = new SnoopInstanceStats();
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final Set<String> unresolved = new ConcurrentSkipListSet<>();
 
     /**
      * Creates a SnoopServiceClient for the named service.
@@ -60,18 +97,212 @@ public class SnoopProducer {
     @Dependent
     public SnoopServiceClient lookup(InjectionPoint ip) {
 
-        final String applicationName = ip.getAnnotated().getAnnotation(Snoop.class).serviceName();
+        final Snoop snoop = ip.getAnnotated().getAnnotation(Snoop.class);
+        final String applicationName = snoop.serviceName();
 
         LOGGER.config(() -> "producing " + applicationName);
 
-        String serviceUrl = "http://" + readProperty("snoopService", snoopConfig);
+        String snoopService = readProperty("snoopService", snoopConfig);
+        String serviceUrl = "http://" + snoopService;
         LOGGER.config(() -> "Service URL: " + serviceUrl);
 
         return new SnoopServiceClient.Builder(applicationName)
                 .serviceUrl(serviceUrl)
+                .replica(getReplica(snoopService))
+                .lookupCache(lookupCache)
+                .targets(targets)
+                .instanceStats(instanceStats)
+                .balancer(snoop.balancer())
+                .retries(snoop.retries())
+                .hedgePercentile(snoop.hedgePercentile())
+                .scheduler(scheduler)
+                .connectTimeout(snoop.connectTimeout() > 0 ? snoop.connectTimeout() : connectTimeout)
+                .readTimeout(snoop.readTimeout() > 0 ? snoop.readTimeout() : readTimeout)
+                .timeout(snoop.timeout() > 0 ? snoop.timeout() : timeout)
+                .lookupTimeout(lookupTimeout)
+                .concurrencyLimit(snoop.concurrencyLimit())
                 .build();
     }
 
+    /**
+     * Looks up several services from Snoop in one call, and puts them in the lookup cache and the replica so that the
+     * first calls made by the clients of these services need not look them up.
+     *
+     * @param serviceNames The names of the services
+     * @return the instances of each service, empty if the service has no live instances
+     *
+     * @throws SnoopServiceUnavailableException if Snoop is not available
+     */
+    public Map<String, List<SnoopConfig>> prefetch(final Collection<String> serviceNames) throws SnoopServiceUnavailableException {
+
+        if (serviceNames.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final String snoopService = readProperty("snoopService", snoopConfig);
+        final JsonArrayBuilder names = Json.createArrayBuilder();
+        serviceNames.forEach(names::add);
+
+        final Response response;
+        try {
+            response = SnoopTargets.timeouts(targets.services("http://" + snoopService)
+                    .path("_lookup")
+                    .request(APPLICATION_JSON), lookupTimeout, lookupTimeout)
+                    .post(Entity.json(names.build().toString()));
+
+        } catch (ProcessingException e) {
+            throw new SnoopServiceUnavailableException(e);
+        }
+
+        if (response.getStatus() != 200) {
+            final int status = response.getStatus();
+            response.close();
+            throw new SnoopServiceUnavailableException("Response from \"" + snoopService + "\"=" + status);
+        }
+
+        final SnoopReplica snoopReplica = getReplica(snoopService);
+
+        final Map<String, List<SnoopConfig>> services = new HashMap<>();
+
+        try (JsonReader reader = Json.createReader(new StringReader(response.readEntity(String.class)))) {
+            for (JsonObject service : reader.readArray().getValuesAs(JsonObject.class)) {
+                final String serviceName = service.getString("serviceName");
+                final List<SnoopConfig> instances = service.getJsonArray("instances").getValuesAs(JsonObject.class).stream()
+                        .map(SnoopConfig::fromJSON)
+                        .collect(Collectors.toList());
+
+                lookupCache.put(serviceName, instances);
+                snoopReplica.update(serviceName, service.getJsonNumber("index").longValue(), instances);
+                services.put(serviceName, instances);
+            }
+        }
+        return services;
+    }
+
+    /**
+     * Tells if the services injected with @Snoop have been looked up since the application was deployed. Use it in
+     * readiness checks to hold back traffic until the first calls need not wait for lookups.
+     *
+     * @return true once all services have been looked up, or failed to be
+     */
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    /**
+     * Gets a stage that completes when the services injected with @Snoop have been looked up.
+     *
+     * @return the stage
+     */
+    public CompletionStage<Void> whenReady() {
+        return ready;
+    }
+
+    /**
+     * The services injected with @Snoop that could not be looked up at startup.
+     *
+     * @return the names of the services
+     */
+    public Set<String> getUnresolved() {
+        return Collections.unmodifiableSet(unresolved);
+    }
+
+    /**
+     * Looks up the services in the background, in one batch call, or in parallel one by one if the Snoop Service does
+     * not support batch lookups.
+     *
+     * @param serviceNames The names of the services
+     */
+    void warmUp(final Set<String> serviceNames) {
+
+        if (serviceNames.isEmpty()) {
+            ready.complete(null);
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        ready.whenComplete((r, t) -> LOGGER.info(() -> "Looked up " + (serviceNames.size() - unresolved.size()) + " of "
+                + serviceNames.size() + " services in " + (System.currentTimeMillis() - start) + " ms"));
+
+        executor.execute(() -> {
+            try {
+                prefetch(serviceNames);
+                ready.complete(null);
+
+            } catch (SnoopServiceUnavailableException e) {
+                LOGGER.warning(() -> "Batch lookup failed, looking up services one by one: " + e.getMessage());
+
+                final String snoopService = readProperty("snoopService", snoopConfig);
+                CompletableFuture.allOf(serviceNames.stream()
+                        .map(serviceName -> new SnoopServiceClient.Builder(serviceName)
+                                .serviceUrl("http://" + snoopService)
+                                .replica(getReplica(snoopService))
+                                .lookupCache(lookupCache)
+                                .targets(targets)
+                                .instanceStats(instanceStats)
+                                .lookupTimeout(lookupTimeout)
+                                .build()
+                                .warmUp()
+                                .whenComplete((instances, t) -> {
+                                    if (t != null) {
+                                        unresolved.add(serviceName);
+                                    }
+                                }))
+                        .toArray(CompletableFuture[]::new))
+                        .whenComplete((r, t) -> ready.complete(null));
+
+            } catch (RuntimeException e) {
+                LOGGER.warning(() -> "Could not look up services at startup: " + e.getMessage());
+                unresolved.addAll(serviceNames);
+                ready.complete(null);
+            }
+        });
+    }
+
+    /**
+     * The cache used by all clients created by this producer when looking up services from Snoop.
+     *
+     * @return the lookup cache with its hit and miss counters
+     */
+    public SnoopLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * The statistics of the service instances called by all clients created by this producer.
+     *
+     * @return the instance statistics
+     */
+    public SnoopInstanceStats getInstanceStats() {
+        return instanceStats;
+    }
+
+    /**
+     * Gets the replica shared by all clients created by this producer.
+     *
+     * @param snoopService The location of the Snoop Service
+     * @return the replica
+     */
+    private synchronized SnoopReplica getReplica(final String snoopService) {
+
+        if (replica == null) {
+            replica = new SnoopReplica(snoopService, executor);
+        }
+        return replica;
+    }
+
+    private long readProperty(final String key, Map<String, Object> snoopConfig, final long defaultValue) {
+
+        try {
+            return Long.parseLong(readProperty(key, snoopConfig));
+
+        } catch (SnoopConfigurationException e) {
+            return defaultValue;
+        } catch (NumberFormatException e) {
+            throw new SnoopConfigurationException(key + " must be a number", e);
+        }
+    }
+
     private String readProperty(final String key, Map<String, Object> snoopConfig) {
 
         String property = Optional.ofNullable(System.getProperty(key))
@@ -106,5 +337,44 @@ public class SnoopProducer {
         } catch (YAMLException e) {
             LOGGER.config(() -> "No configuration file. Using env properties.");
         }
+
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "snoop-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snoop-client-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        lookupCache = new SnoopLookupCache(
+                readProperty("lookupTtl", snoopConfig, DEFAULT_LOOKUP_TTL),
+                readProperty("lookupMaxStale", snoopConfig, DEFAULT_LOOKUP_MAX_STALE),
+                executor);
+
+        connectTimeout = (int) readProperty("connectTimeout", snoopConfig, 0);
+        readTimeout = (int) readProperty("readTimeout", snoopConfig, 0);
+        timeout = readProperty("timeout", snoopConfig, 0);
+        lookupTimeout = (int) readProperty("lookupTimeout", snoopConfig, DEFAULT_LOOKUP_TIMEOUT);
+
+        targets = new SnoopTargets((int) readProperty("asyncThreadPoolSize", snoopConfig, DEFAULT_ASYNC_THREAD_POOL_SIZE));
+    }
+
+    /**
+     * Closes the subscription of the replica, stops background lookups and hedged requests, and closes the shared
+     * JAX-RS client.
+     */
+    @PreDestroy
+    private void destroy() {
+
+        if (replica != null) {
+            replica.close();
+        }
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+        targets.close();
     }
 }
@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.websocket.ClientEndpoint;
+import javax.websocket.CloseReason;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DeploymentException;
+import javax.websocket.OnClose;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+
+/**
+ * Local replica of the instances of the services looked up through Snoop.
+ *
+ * The replica subscribes to changes of every service it is asked for, and the Snoop Service pushes the instances of
+ * the service whenever they change. As long as the subscription is connected, lookups are served from memory without
+ * any network call. When it is not, the replica is bypassed and the client falls back to asking the Snoop Service.
+ * Services that have not been pushed for a while are subscribed to again, and bypassed until the Snoop Service has
+ * answered, in case a push was lost.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+@ClientEndpoint
+public class SnoopReplica {
+
+    private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+    private static final String WATCH_ENDPOINT = "snoopwatch";
+    private static final long RECONNECT_DELAY = 10000;
+    private static final long MAX_AGE = 60000;
+
+    private final String watchUrl;
+    private final Map<String, Instances> services = new ConcurrentHashMap<>();
+    private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean connecting = new AtomicBoolean();
+    private final Executor executor;
+
+    private volatile Session session;
+    private volatile long reconnectAt;
+
+    /**
+     * Creates a replica.
+     *
+     * @param snoopService The location of the Snoop Service, i.e. host:port/snoop-service/
+     * @param executor The executor used for connecting, so that no caller waits for the connection
+     */
+    SnoopReplica(final String snoopService, final Executor executor) {
+        this.watchUrl = "ws://" + snoopService + WATCH_ENDPOINT;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the instances of a service if the replica is connected, and subscribes to the service if this is the first
+     * time it is asked for.
+     *
+     * @param serviceName The service name
+     * @return the instances, or empty if the replica does not know the current instances of the service
+     */
+    Optional<List<SnoopConfig>> get(final String serviceName) {
+
+        subscribe(serviceName);
+
+        if (!isConnected()) {
+            return Optional.empty();
+        }
+
+        final Instances instances = services.get(serviceName);
+
+        if (instances == null) {
+            return Optional.empty();
+        }
+        if (instances.isOlderThan(MAX_AGE)) {
+            resync(serviceName, instances);
+            return Optional.empty();
+        }
+        return Optional.of(instances.getInstances());
+    }
+
+    /**
+     * Updates the instances of a service unless the replica already has a newer version.
+     *
+     * @param serviceName The service name
+     * @param index The index of the service at the Snoop Service
+     * @param instances The current instances
+     */
+    void update(final String serviceName, final long index, final List<SnoopConfig> instances) {
+        services.merge(serviceName, new Instances(index, instances),
+                (current, updated) -> updated.getIndex() >= current.getIndex() ? updated : current);
+    }
+
+    boolean isConnected() {
+        final Session current = session;
+        return current != null && current.isOpen();
+    }
+
+    /**
+     * Handles the instances of a service pushed from the Snoop Service.
+     *
+     * @param message The message
+     */
+    @OnMessage
+    public void onMessage(String message) {
+        LOGGER.fine(() -> "Pushed: " + message);
+
+        try (JsonReader reader = Json.createReader(new StringReader(message))) {
+            final JsonObject service = reader.readObject();
+
+            update(service.getString("serviceName"),
+                    service.getJsonNumber("index").longValue(),
+                    service.getJsonArray("instances").getValuesAs(JsonObject.class).stream()
+                    .map(SnoopConfig::fromJSON)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @OnClose
+    public void onClose(Session closed, CloseReason reason) {
+        LOGGER.warning(() -> "Subscription closed: " + reason.getReasonPhrase());
+        session = null;
+    }
+
+    /**
+     * Closes the subscription.
+     */
+    void close() {
+        final Session current = session;
+        session = null;
+
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                LOGGER.warning(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Subscribes to a service again, so that the Snoop Service pushes its current instances.
+     */
+    private void resync(final String serviceName, final Instances instances) {
+        final Session current = session;
+
+        if (current != null && instances.resync()) {
+            LOGGER.fine(() -> "Resyncing " + serviceName);
+            executor.execute(() -> send(current, serviceName));
+        }
+    }
+
+    private void subscribe(final String serviceName) {
+
+        if (subscriptions.add(serviceName) && isConnected()) {
+            send(session, serviceName);
+        } else if (!isConnected() && System.currentTimeMillis() >= reconnectAt && connecting.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::connect);
+            } catch (RejectedExecutionException e) {
+                connecting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Connects to the Snoop Service and subscribes to all services. Only one connection attempt is scheduled at a time,
+     * and lookups carry on without the replica until it is connected.
+     */
+    private void connect() {
+
+        try {
+            if (!isConnected()) {
+                reconnectAt = System.currentTimeMillis() + RECONNECT_DELAY;
+                services.clear();
+
+                final Session connected = ContainerProvider.getWebSocketContainer()
+                        .connectToServer(this, URI.create(watchUrl));
+                session = connected;
+                subscriptions.forEach(serviceName -> send(connected, serviceName));
+
+                LOGGER.config(() -> "Subscribed to " + subscriptions + " at " + watchUrl);
+            }
+        } catch (DeploymentException | IOException e) {
+            LOGGER.warning(() -> "Could not subscribe to changes: " + e.getMessage());
+        } finally {
+            connecting.set(false);
+        }
+    }
+
+    private void send(final Session target, final String serviceName) {
+        try {
+            synchronized (target) {
+                target.getBasicRemote().sendText(serviceName);
+            }
+        } catch (IOException e) {
+            LOGGER.warning(() -> "Could not subscribe to " + serviceName + ": " + e.getMessage());
+            if (target == session) {
+                close();
+            }
+        }
+    }
+
+    private static final class Instances {
+
+        private final long index;
+        private final List<SnoopConfig> instances;
+        private final long received = System.currentTimeMillis();
+        private final AtomicBoolean resyncing = new AtomicBoolean();
+
+        Instances(final long index, final List<SnoopConfig> instances) {
+            this.index = index;
+            this.instances = Collections.unmodifiableList(instances);
+        }
+
+        boolean isOlderThan(final long maxAge) {
+            return System.currentTimeMillis() - received > maxAge;
+        }
+
+        /**
+         * @return true for the first caller only
+         */
+        boolean resync() {
+            return resyncing.compareAndSet(false, true);
+        }
+
+        long getIndex() {
+            return index;
+        }
+
+        List<SnoopConfig> getInstances() {
+            return instances;
+        }
+    }
+}
@@ -23,12 +23,29 @@
  */
 package eu.agilejava.snoop.client;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.ws.rs.ProcessingException;
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.AsyncInvoker;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import javax.ws.rs.core.Response;
 
@@ -41,14 +58,45 @@ public class SnoopServiceClient {
 
     private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
     private static final String DEFAULT_BASE_URI = "http://localhost:8080/snoop-service/";
+    private static final String INDEX_HEADER = "X-Snoop-Index";
+    private static final double RETRY_BUDGET_RATIO = 0.2;
+    private static final int RETRY_BUDGET_RESERVE = 10;
 
     private final String applicationName;
     private final String serviceUrl;
+    private final SnoopReplica replica;
+    private final SnoopLookupCache lookupCache;
+    private final SnoopTargets targets;
+    private final SnoopInstanceStats instanceStats;
+    private final LoadBalancer balancer;
+    private final int retries;
+    private final double hedgePercentile;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyWindow latencies;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long timeout;
+    private final int lookupTimeout;
+    private final boolean concurrencyLimit;
+    private final RetryBudget retryBudget = new RetryBudget(RETRY_BUDGET_RATIO, RETRY_BUDGET_RESERVE);
 
     static final class Builder {
 
         private final String applicationName;
         private String serviceUrl = DEFAULT_BASE_URI;
+        private SnoopReplica replica;
+        private SnoopLookupCache lookupCache;
+        private SnoopTargets targets;
+        private SnoopInstanceStats instanceStats = new SnoopInstanceStats();
+        private Balancer balancer = Balancer.RANDOM;
+        private int retries;
+        private double hedgePercentile;
+        private ScheduledExecutorService scheduler;
+        private int connectTimeout;
+        private int readTimeout;
+        private long timeout;
+        private int lookupTimeout;
+        private boolean concurrencyLimit;
 
         Builder(final String applicationName) {
             this.applicationName = applicationName;
@@ -59,6 +107,71 @@ public class SnoopServiceClient {
             return this;
         }
 
+        Builder replica(final SnoopReplica replica) {
+            this.replica = replica;
+            return this;
+        }
+
+        Builder lookupCache(final SnoopLookupCache lookupCache) {
+            this.lookupCache = lookupCache;
+            return this;
+        }
+
+        Builder targets(final SnoopTargets targets) {
+            this.targets = targets;
+            return this;
+        }
+
+        Builder instanceStats(final SnoopInstanceStats instanceStats) {
+            this.instanceStats = instanceStats;
+            return this;
+        }
+
+        Builder balancer(final Balancer balancer) {
+            this.balancer = balancer;
+            return this;
+        }
+
+        Builder retries(final int retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        Builder hedgePercentile(final double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        Builder scheduler(final ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        Builder connectTimeout(final int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        Builder readTimeout(final int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        Builder timeout(final long timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        Builder lookupTimeout(final int lookupTimeout) {
+            this.lookupTimeout = lookupTimeout;
+            return this;
+        }
+
+        Builder concurrencyLimit(final boolean concurrencyLimit) {
+            this.concurrencyLimit = concurrencyLimit;
+            return this;
+        }
+
         SnoopServiceClient build() {
             return new SnoopServiceClient(this);
         }
@@ -67,6 +180,20 @@ public class SnoopServiceClient {
     private SnoopServiceClient(final Builder builder) {
         this.applicationName = builder.applicationName;
         this.serviceUrl = builder.serviceUrl;
+        this.replica = builder.replica;
+        this.lookupCache = builder.lookupCache;
+        this.targets = builder.targets;
+        this.instanceStats = builder.instanceStats;
+        this.balancer = builder.balancer.create();
+        this.retries = builder.retries;
+        this.hedgePercentile = builder.scheduler != null ? builder.hedgePercentile : 0;
+        this.scheduler = builder.scheduler;
+        this.latencies = new LatencyWindow(hedgePercentile > 0 ? hedgePercentile : 99);
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.timeout = builder.timeout;
+        this.lookupTimeout = builder.lookupTimeout;
+        this.concurrencyLimit = builder.concurrencyLimit;
         LOGGER.info(() -> "client created for " + applicationName);
     }
 
@@ -74,7 +201,8 @@ public class SnoopServiceClient {
      * Locator to get the service root for the service registered with Snoop.
      *
      * Use this method if the convenience methods simpleXXX are not sufficient or to avoid the extra call to Snoop for
-     * every request.
+     * every request. The call to Snoop is avoided if the instances of the service are kept up to date in the local
+     * replica or were looked up recently.
      *
      * @return the serviceRoot
      *
@@ -85,9 +213,25 @@ public class SnoopServiceClient {
         SnoopConfig snoopConfig = getConfigFromSnoop();
         LOGGER.fine(() -> "looking up service for " + applicationName);
 
-        return ClientBuilder.newClient()
-                .target(snoopConfig.getServiceHome())
-                .path(snoopConfig.getServiceRoot());
+        return targets.serviceRoot(snoopConfig);
+    }
+
+    /**
+     * Looks up the service so that it is cached before the first call.
+     *
+     * @return a stage completed with the instances of the service
+     */
+    CompletableFuture<List<SnoopConfig>> warmUp() {
+        return getInstancesAsync();
+    }
+
+    /**
+     * The budget that limits the retries and hedged requests of the idempotent simpleXXX methods.
+     *
+     * @return the retry budget with its retry and hedge counters
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
     }
 
     /**
@@ -96,25 +240,17 @@ public class SnoopServiceClient {
      * Calling this method will result in a call to Snoop to retrieve the current configuration for the service in
      * addition to the actual GET request.
      *
+     * GET is idempotent, so a failed call is retried on another instance and a slow call is hedged if the client is
+     * configured to.
+     *
      * @param resourcePath The relative path to the resource
      * @return an optional response that is empty if the service is unavailable.
      */
     public Optional<Response> simpleGet(String resourcePath) {
 
-        Optional<Response> returnValue = Optional.empty();
-
-        try {
-
-            returnValue = Optional.of(getServiceRoot()
-                    .path(resourcePath)
-                    .request()
-                    .get());
-
-        } catch (SnoopServiceUnavailableException e) {
-            LOGGER.warning(() -> "Service unavailable for " + applicationName);
-        }
-
-        return returnValue;
+        return isRetriedOrHedged()
+                ? await(invokeAsync(resourcePath, (request, callback) -> request.get(callback), true, null))
+                : invoke(resourcePath, request -> request.get());
     }
 
     /**
@@ -123,25 +259,17 @@ public class SnoopServiceClient {
      * Calling this method will result in a call to Snoop to retrieve the current configuration for the service in
      * addition to the actual DELETE request.
      *
+     * DELETE is idempotent, so a failed call is retried on another instance and a slow call is hedged if the client
+     * is configured to.
+     *
      * @param resourcePath The relative path to the resource
      * @return an optional response that is empty if the service is unavailable.
      */
     public Optional<Response> simpleDelete(String resourcePath) {
 
-        Optional<Response> returnValue = Optional.empty();
-
-        try {
-
-            returnValue = Optional.of(getServiceRoot()
-                    .path(resourcePath)
-                    .request()
-                    .delete());
-
-        } catch (SnoopServiceUnavailableException e) {
-            LOGGER.warning(() -> "Service unavailable for " + applicationName);
-        }
-
-        return returnValue;
+        return isRetriedOrHedged()
+                ? await(invokeAsync(resourcePath, (request, callback) -> request.delete(callback), true, null))
+                : invoke(resourcePath, request -> request.delete());
     }
 
     /**
@@ -156,20 +284,7 @@ public class SnoopServiceClient {
      */
     public Optional<Response> simplePut(String resourcePath, Object resource) {
 
-        Optional<Response> returnValue = Optional.empty();
-
-        try {
-
-            returnValue = Optional.of(getServiceRoot()
-                    .path(resourcePath)
-                    .request()
-                    .put(Entity.entity(resource, APPLICATION_JSON)));
-
-        } catch (SnoopServiceUnavailableException e) {
-            LOGGER.warning(() -> "Service unavailable for " + applicationName);
-        }
-
-        return returnValue;
+        return invoke(resourcePath, request -> request.put(Entity.entity(resource, APPLICATION_JSON)));
     }
 
     /**
@@ -184,14 +299,131 @@ public class SnoopServiceClient {
      */
     public Optional<Response> simplePost(String resourcePath, Object resource) {
 
+        return invoke(resourcePath, request -> request.post(Entity.entity(resource, APPLICATION_JSON)));
+    }
+
+    /**
+     * Asynchronous variant of {@link #simpleGet(java.lang.String)}. Neither the lookup of the service nor the GET
+     * request blocks the calling thread.
+     *
+     * @param resourcePath The relative path to the resource
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simpleGetAsync(String resourcePath) {
+        return simpleGetAsync(resourcePath, null);
+    }
+
+    /**
+     * Asynchronous variant of {@link #simpleGet(java.lang.String)}.
+     *
+     * @param resourcePath The relative path to the resource
+     * @param executor The executor that completes the returned stage
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simpleGetAsync(String resourcePath, Executor executor) {
+
+        return invokeAsync(resourcePath, (request, callback) -> request.get(callback), true, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #simpleDelete(java.lang.String)}. Neither the lookup of the service nor the
+     * DELETE request blocks the calling thread.
+     *
+     * @param resourcePath The relative path to the resource
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simpleDeleteAsync(String resourcePath) {
+        return simpleDeleteAsync(resourcePath, null);
+    }
+
+    /**
+     * Asynchronous variant of {@link #simpleDelete(java.lang.String)}.
+     *
+     * @param resourcePath The relative path to the resource
+     * @param executor The executor that completes the returned stage
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simpleDeleteAsync(String resourcePath, Executor executor) {
+
+        return invokeAsync(resourcePath, (request, callback) -> request.delete(callback), true, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #simplePut(java.lang.String, java.lang.Object)}. Neither the lookup of the
+     * service nor the PUT request blocks the calling thread.
+     *
+     * @param resourcePath The relative path to the resource
+     * @param resource The changes made to this resource
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simplePutAsync(String resourcePath, Object resource) {
+        return simplePutAsync(resourcePath, resource, null);
+    }
+
+    /**
+     * Asynchronous variant of {@link #simplePut(java.lang.String, java.lang.Object)}.
+     *
+     * @param resourcePath The relative path to the resource
+     * @param resource The changes made to this resource
+     * @param executor The executor that completes the returned stage
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simplePutAsync(String resourcePath, Object resource, Executor executor) {
+
+        return invokeAsync(resourcePath, (request, callback) -> request.put(Entity.entity(resource, APPLICATION_JSON), callback), false, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #simplePost(java.lang.String, java.lang.Object)}. Neither the lookup of the
+     * service nor the POST request blocks the calling thread.
+     *
+     * @param resourcePath The relative path to the resource
+     * @param resource The new resource
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simplePostAsync(String resourcePath, Object resource) {
+        return simplePostAsync(resourcePath, resource, null);
+    }
+
+    /**
+     * Asynchronous variant of {@link #simplePost(java.lang.String, java.lang.Object)}.
+     *
+     * @param resourcePath The relative path to the resource
+     * @param resource The new resource
+     * @param executor The executor that completes the returned stage
+     * @return a stage completed with an optional response that is empty if the service is unavailable.
+     */
+    public CompletionStage<Optional<Response>> simplePostAsync(String resourcePath, Object resource, Executor executor) {
+
+        return invokeAsync(resourcePath, (request, callback) -> request.post(Entity.entity(resource, APPLICATION_JSON), callback), false, executor);
+    }
+
+    /**
+     * Calls the resource on an instance chosen by the load balancer, and records the call in the statistics of the
+     * instance. Server errors and failures to get a response count as failed calls.
+     */
+    private Optional<Response> invoke(final String resourcePath, final Function<Invocation.Builder, Response> method) {
+
         Optional<Response> returnValue = Optional.empty();
 
         try {
-
-            returnValue = Optional.of(getServiceRoot()
-                    .path(resourcePath)
-                    .request()
-                    .post(Entity.entity(resource, APPLICATION_JSON)));
+            final long deadline = SnoopDeadline.of(timeout);
+            final SnoopConfig instance = getConfigFromSnoop();
+            final Invocation.Builder request = request(instance, resourcePath, deadline);
+            final InstanceStats stats = instanceStats.of(instance);
+            final boolean limited = acquire(stats);
+            final long start = stats.start();
+            boolean success = false;
+
+            try {
+                final Response response = method.apply(request);
+                success = response.getStatus() < 500;
+                returnValue = Optional.of(response);
+                latencies.record(System.nanoTime() - start);
+            } finally {
+                release(stats, limited, System.nanoTime() - start, success);
+                stats.finish(start, success);
+            }
 
         } catch (SnoopServiceUnavailableException e) {
             LOGGER.warning(() -> "Service unavailable for " + applicationName);
@@ -200,25 +432,392 @@ public class SnoopServiceClient {
         return returnValue;
     }
 
-    private SnoopConfig getConfigFromSnoop() throws SnoopServiceUnavailableException {
+    /**
+     * Asynchronous variant of {@link #invoke(java.lang.String, java.util.function.Function)} built on the JAX-RS
+     * asynchronous client API. Idempotent calls are retried and hedged as configured.
+     */
+    private CompletionStage<Optional<Response>> invokeAsync(final String resourcePath,
+            final BiConsumer<AsyncInvoker, InvocationCallback<Response>> method, final boolean idempotent,
+            final Executor executor) {
+
+        final long deadline = SnoopDeadline.of(timeout);
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        // a response that arrives after the deadline has completed the call is nobody's to close but ours
+        getInstancesAsync()
+                .thenCompose(instances -> idempotent && isRetriedOrHedged()
+                        ? new Exchange(instances, resourcePath, method, deadline).start()
+                        : call(choose(instances), resourcePath, method, deadline))
+                .whenComplete((r, t) -> {
+                    if (t != null) {
+                        response.completeExceptionally(t);
+                    } else if (!response.complete(r)) {
+                        r.close();
+                    }
+                });
+
+        if (deadline != SnoopDeadline.NONE && scheduler != null) {
+            final ScheduledFuture<?> expiry = scheduler.schedule(() -> response.completeExceptionally(
+                    new SnoopServiceUnavailableException("Deadline of call to \"" + applicationName + "\" exceeded")),
+                    deadline - System.nanoTime(), NANOSECONDS);
+            response.whenComplete((r, t) -> expiry.cancel(false));
+        }
+
+        final CompletableFuture<Optional<Response>> result = response
+                .thenApply(Optional::of)
+                .exceptionally(t -> {
+                    final Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                    if (cause instanceof SnoopServiceUnavailableException) {
+                        LOGGER.warning(() -> "Service unavailable for " + applicationName);
+                        return Optional.empty();
+                    }
+                    throw t instanceof CompletionException ? (CompletionException) t : new CompletionException(t);
+                });
+
+        return executor != null ? result.whenCompleteAsync((r, t) -> {}, executor) : result;
+    }
+
+    /**
+     * Makes one asynchronous call to an instance, and records it in the statistics of the instance.
+     */
+    private CompletableFuture<Response> call(final SnoopConfig instance, final String resourcePath,
+            final BiConsumer<AsyncInvoker, InvocationCallback<Response>> method, final long deadline) {
+
+        final CompletableFuture<Response> call = new CompletableFuture<>();
+        final InstanceStats stats = instanceStats.of(instance);
+        final Invocation.Builder request;
+        final boolean limited;
 
         try {
-            Response response = ClientBuilder.newClient()
-                    .target(serviceUrl)
-                    .path("api")
-                    .path("services")
-                    .path(applicationName)
-                    .request(APPLICATION_JSON)
-                    .get();
+            request = request(instance, resourcePath, deadline);
+            limited = acquire(stats);
+        } catch (SnoopServiceUnavailableException e) {
+            call.completeExceptionally(e);
+            return call;
+        }
+
+        final long start = stats.start();
+
+        method.accept(request.async(), new InvocationCallback<Response>() {
+
+            @Override
+            public void completed(Response response) {
+                final boolean success = response.getStatus() < 500;
+                release(stats, limited, System.nanoTime() - start, success);
+                stats.finish(start, success);
+                latencies.record(System.nanoTime() - start);
+                call.complete(response);
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                release(stats, limited, System.nanoTime() - start, false);
+                stats.finish(start, false);
+                call.completeExceptionally(throwable);
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Builds a request to an instance with the timeouts of the client, passing on what is left of the deadline.
+     *
+     * @throws SnoopServiceUnavailableException if the deadline has passed
+     */
+    private Invocation.Builder request(final SnoopConfig instance, final String resourcePath, final long deadline)
+            throws SnoopServiceUnavailableException {
+
+        final Invocation.Builder request = targets.serviceRoot(instance)
+                .path(resourcePath)
+                .request();
+        int read = readTimeout;
+
+        if (deadline != SnoopDeadline.NONE) {
+            final long remaining = SnoopDeadline.remaining(deadline);
+            if (remaining <= 0) {
+                throw new SnoopServiceUnavailableException("Deadline of call to \"" + applicationName + "\" exceeded");
+            }
+            request.header(SnoopDeadline.HEADER, remaining);
+            read = (int) Math.min(read > 0 ? read : Integer.MAX_VALUE, remaining);
+        }
+
+        return SnoopTargets.timeouts(request, connectTimeout, read);
+    }
+
+    /**
+     * Lets a call to an instance through the concurrency limits of the service and of the instance, if the client is
+     * concurrency limited.
+     *
+     * @return true if the limits were acquired, and must be released when the call completes
+     * @throws SnoopServiceUnavailableException if either limit has been reached
+     */
+    private boolean acquire(final InstanceStats stats) throws SnoopServiceUnavailableException {
+
+        if (!concurrencyLimit) {
+            return false;
+        }
+
+        final ConcurrencyLimit serviceLimit = instanceStats.limitOf(applicationName);
+
+        if (!serviceLimit.tryAcquire()) {
+            throw new SnoopServiceUnavailableException("Concurrency limit of \"" + applicationName + "\" reached");
+        }
+        if (!stats.getLimit().tryAcquire()) {
+            serviceLimit.cancel();
+            throw new SnoopServiceUnavailableException("Concurrency limit of instance of \"" + applicationName + "\" reached");
+        }
+        return true;
+    }
+
+    private void release(final InstanceStats stats, final boolean limited, final long rtt, final boolean success) {
+        if (limited) {
+            instanceStats.limitOf(applicationName).release(rtt, success);
+            stats.getLimit().release(rtt, success);
+        }
+    }
+
+    private boolean isRetriedOrHedged() {
+        return retries > 0 || hedgePercentile > 0;
+    }
+
+    private static Optional<Response> await(final CompletionStage<Optional<Response>> stage) {
+
+        try {
+            return stage.toCompletableFuture().join();
+
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private SnoopConfig getConfigFromSnoop() throws SnoopServiceUnavailableException {
+
+        return choose(Optional.ofNullable(replica)
+                .flatMap(r -> r.get(applicationName))
+                .orElseGet(() -> lookupCache != null
+                        ? lookupCache.get(applicationName, this::lookupInstances)
+                        : lookupInstances()));
+    }
+
+    private CompletableFuture<List<SnoopConfig>> getInstancesAsync() {
 
-            if (response.getStatus() == 200) {
-                return response.readEntity(SnoopConfig.class);
+        return Optional.ofNullable(replica)
+                .flatMap(r -> r.get(applicationName))
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> lookupCache != null
+                        ? lookupCache.getAsync(applicationName, this::lookupInstancesAsync)
+                        : lookupInstancesAsync());
+    }
+
+    private SnoopConfig choose(final List<SnoopConfig> instances) throws SnoopServiceUnavailableException {
+
+        if (instances.isEmpty()) {
+            throw new SnoopServiceUnavailableException("No instances of \"" + applicationName + "\" registered");
+        }
+        final List<SnoopConfig> candidates = instanceStats.available(instances);
+        return candidates.size() == 1 ? candidates.get(0) : balancer.choose(candidates, instanceStats);
+    }
+
+    /**
+     * An idempotent call to the service that may be made to several of its instances.
+     *
+     * A failed call is retried on an instance that has not been tried yet, and if no response has arrived when the
+     * configured percentile of the recent latencies has passed, a hedged request is sent to another instance. The first
+     * successful response wins and the others are closed. Retries and hedged requests are limited by the retry budget.
+     */
+    private final class Exchange {
+
+        private final List<SnoopConfig> instances;
+        private final String resourcePath;
+        private final BiConsumer<AsyncInvoker, InvocationCallback<Response>> method;
+        private final long deadline;
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private final Set<String> tried = new HashSet<>();
+        private int retriesLeft = retries;
+        private int outstanding;
+        private Response lastResponse;
+        private Throwable lastFailure;
+
+        Exchange(final List<SnoopConfig> instances, final String resourcePath,
+                final BiConsumer<AsyncInvoker, InvocationCallback<Response>> method, final long deadline) {
+            this.instances = instances;
+            this.resourcePath = resourcePath;
+            this.method = method;
+            this.deadline = deadline;
+        }
+
+        CompletableFuture<Response> start() {
+
+            retryBudget.deposit();
+            result.whenComplete(this::settled);
+            send();
+
+            final long delay = hedgePercentile > 0 ? latencies.get() : -1;
+            if (delay > 0 && !result.isDone()) {
+                final ScheduledFuture<?> hedge = scheduler.schedule(this::hedge, delay, NANOSECONDS);
+                result.whenComplete((response, t) -> hedge.cancel(false));
+            }
+            return result;
+        }
+
+        private synchronized void send() {
+
+            final List<SnoopConfig> untried = untried();
+
+            if (untried.isEmpty()) {
+                if (outstanding == 0) {
+                    finish();
+                }
+                return;
+            }
+
+            final List<SnoopConfig> candidates = instanceStats.available(untried);
+            final SnoopConfig instance = candidates.size() == 1 ? candidates.get(0) : balancer.choose(candidates, instanceStats);
+
+            tried.add(instance.getInstanceId());
+            outstanding++;
+            call(instance, resourcePath, method, deadline).whenComplete(this::completed);
+        }
+
+        private synchronized void hedge() {
+
+            if (!result.isDone() && !untried().isEmpty() && !isExpired() && retryBudget.tryHedge()) {
+                LOGGER.fine(() -> "hedging call to " + applicationName);
+                send();
+            }
+        }
+
+        private synchronized void completed(final Response response, final Throwable failure) {
+
+            outstanding--;
+
+            if (result.isDone()) {
+                close(response);
+            } else if (failure == null && response.getStatus() < 500) {
+                result.complete(response);
+            } else {
+                close(lastResponse);
+                lastResponse = response;
+                lastFailure = failure;
+
+                if (retriesLeft > 0 && !untried().isEmpty() && !isExpired() && retryBudget.tryRetry()) {
+                    retriesLeft--;
+                    LOGGER.fine(() -> "retrying call to " + applicationName);
+                    send();
+                } else if (outstanding == 0) {
+                    finish();
+                }
+            }
+        }
+
+        /**
+         * Closes the last failed response unless it is the result.
+         */
+        private synchronized void settled(final Response response, final Throwable failure) {
+            if (lastResponse != response) {
+                close(lastResponse);
+            }
+            lastResponse = null;
+        }
+
+        /**
+         * Completes with the last failed response, or the last failure if there is no response.
+         */
+        private void finish() {
+
+            if (lastResponse != null) {
+                result.complete(lastResponse);
             } else {
-                throw new SnoopServiceUnavailableException("Response from \"" + serviceUrl + "\"=" + response.getStatus());
+                result.completeExceptionally(lastFailure != null
+                        ? lastFailure
+                        : new SnoopServiceUnavailableException("No instances of \"" + applicationName + "\" registered"));
             }
+        }
+
+        private boolean isExpired() {
+            return SnoopDeadline.remaining(deadline) <= 0;
+        }
+
+        private List<SnoopConfig> untried() {
+            return instances.stream()
+                    .filter(instance -> !tried.contains(instance.getInstanceId()))
+                    .collect(Collectors.toList());
+        }
+
+        private void close(final Response response) {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    private List<SnoopConfig> lookupInstances() throws SnoopServiceUnavailableException {
+
+        try {
+            return readInstances(SnoopTargets.timeouts(targets.services(serviceUrl)
+                    .path(applicationName)
+                    .request(APPLICATION_JSON), lookupTimeout, lookupTimeout)
+                    .get());
 
         } catch (ProcessingException e) {
             throw new SnoopServiceUnavailableException(e);
         }
     }
+
+    private CompletableFuture<List<SnoopConfig>> lookupInstancesAsync() {
+
+        final CompletableFuture<List<SnoopConfig>> instances = new CompletableFuture<>();
+
+        SnoopTargets.timeouts(targets.services(serviceUrl)
+                .path(applicationName)
+                .request(APPLICATION_JSON), lookupTimeout, lookupTimeout)
+                .async()
+                .get(new InvocationCallback<Response>() {
+
+                    @Override
+                    public void completed(Response response) {
+                        try {
+                            instances.complete(readInstances(response));
+                        } catch (RuntimeException e) {
+                            instances.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        instances.completeExceptionally(new SnoopServiceUnavailableException(throwable));
+                    }
+                });
+
+        return instances;
+    }
+
+    private List<SnoopConfig> readInstances(final Response response) throws SnoopServiceUnavailableException {
+
+        if (response.getStatus() == 200) {
+            List<SnoopConfig> instances = response.readEntity(new GenericType<List<SnoopConfig>>() {});
+            updateReplica(response, instances);
+            return instances;
+        } else if (response.getStatus() == 404) {
+            updateReplica(response, Collections.emptyList());
+            response.close();
+            return Collections.emptyList();
+        } else {
+            final int status = response.getStatus();
+            response.close();
+            throw new SnoopServiceUnavailableException("Response from \"" + serviceUrl + "\"=" + status);
+        }
+    }
+
+    private void updateReplica(final Response response, final List<SnoopConfig> instances) {
+
+        final String index = response.getHeaderString(INDEX_HEADER);
+
+        if (replica != null && index != null) {
+            replica.update(applicationName, Long.parseLong(index), instances);
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+
+/**
+ * The JAX-RS client shared by all Snoop service clients of a producer, together with the web targets built for the
+ * Snoop Service and for every service instance. Web targets are immutable and thread safe, so they are built once and
+ * reused for every request.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+class SnoopTargets {
+
+    private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+    private static final int MAX_TARGETS = 1024;
+    private static final String ASYNC_THREAD_POOL_SIZE = "jersey.config.client.async.threadPoolSize";
+    private static final String CONNECT_TIMEOUT = "jersey.config.client.connectTimeout";
+    private static final String READ_TIMEOUT = "jersey.config.client.readTimeout";
+
+    private final Client client;
+    private final Map<String, WebTarget> targets = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the shared client.
+     *
+     * No connection pool is configured. The JAX-RS API has no portable way to configure one, and the default Jersey
+     * connector uses HttpURLConnection, whose keep-alive cache is shared by the whole JVM and sized only by the
+     * http.maxConnections system property. That property is left to whoever runs the server.
+     *
+     * Asynchronous requests run on a thread pool of Jersey, which is the implementation in GlassFish and Payara. Each
+     * request holds one of its threads until the response has arrived, so the size of the pool caps the number of
+     * asynchronous calls in flight across all clients of the producer, including retries, hedged requests and lookups.
+     *
+     * @param asyncThreadPoolSize The number of threads for asynchronous requests, or 0 for the Jersey default, which
+     * is not bounded
+     */
+    SnoopTargets(final int asyncThreadPoolSize) {
+
+        final ClientBuilder builder = ClientBuilder.newBuilder();
+
+        if (asyncThreadPoolSize > 0) {
+            builder.property(ASYNC_THREAD_POOL_SIZE, asyncThreadPoolSize);
+            LOGGER.config(() -> ASYNC_THREAD_POOL_SIZE + " set to " + asyncThreadPoolSize);
+        }
+
+        this.client = builder.build();
+    }
+
+    /**
+     * Gets the target for the services resource of the Snoop Service.
+     *
+     * @param serviceUrl The URL of the Snoop Service
+     * @return the target
+     */
+    WebTarget services(final String serviceUrl) {
+        return target(serviceUrl, () -> client.target(serviceUrl)
+                .path("api")
+                .path("services"));
+    }
+
+    /**
+     * Gets the target for the service root of a service instance.
+     *
+     * @param config The instance
+     * @return the target
+     */
+    WebTarget serviceRoot(final SnoopConfig config) {
+        return target(config.getServiceHome() + config.getServiceRoot(), () -> client.target(config.getServiceHome())
+                .path(config.getServiceRoot()));
+    }
+
+    /**
+     * Sets the timeouts of a request.
+     *
+     * The JAX-RS 2.0 API has no portable way to set timeouts, so they are set as the request properties understood
+     * by Jersey, which is the implementation in GlassFish and Payara.
+     *
+     * @param request The request
+     * @param connectTimeout The connect timeout in milliseconds, or 0 for none
+     * @param readTimeout The read timeout in milliseconds, or 0 for none
+     * @return the request
+     */
+    static Invocation.Builder timeouts(final Invocation.Builder request, final int connectTimeout, final int readTimeout) {
+
+        if (connectTimeout > 0) {
+            request.property(CONNECT_TIMEOUT, connectTimeout);
+        }
+        if (readTimeout > 0) {
+            request.property(READ_TIMEOUT, readTimeout);
+        }
+        return request;
+    }
+
+    void close() {
+        targets.clear();
+        client.close();
+    }
+
+    private WebTarget target(final String key, final Supplier<WebTarget> target) {
+
+        WebTarget cached = targets.get(key);
+
+        if (cached == null) {
+            if (targets.size() >= MAX_TARGETS) {
+                targets.clear();
+            }
+            cached = targets.computeIfAbsent(key, k -> target.get());
+        }
+        return cached;
+    }
+}
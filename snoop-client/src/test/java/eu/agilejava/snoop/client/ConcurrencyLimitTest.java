@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates calls arriving at a steady rate on a virtual clock, with lognormal latencies.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class ConcurrencyLimitTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    public void healthyServiceIsNotLimited() {
+        for (double sigma : new double[]{0.2, 0.3, 0.5}) {
+            final Simulation simulation = new Simulation(100, 200, sigma);
+            simulation.run(60_000, 20);
+
+            assertTrue("Rejected " + simulation.rejected + " of " + simulation.calls + " at sigma " + sigma,
+                    simulation.rejected < simulation.calls / 100);
+        }
+    }
+
+    /**
+     * The limit shrinks soon after the service slows down. It grows back as the slower round trip time becomes the
+     * baseline.
+     */
+    @Test
+    public void slowingServiceIsLimited() {
+        final Simulation simulation = new Simulation(100, 200, 0.3);
+        simulation.run(30_000, 20);
+        final int healthy = simulation.limit.getLimit();
+
+        simulation.run(3_000, 200);
+
+        assertTrue("Limit " + simulation.limit.getLimit() + " after " + healthy, simulation.limit.getLimit() < healthy / 2);
+    }
+
+    private static class Simulation {
+
+        private final ConcurrencyLimit limit;
+        private final int perSecond;
+        private final double sigma;
+        private final Random random = new Random(42);
+        private final PriorityQueue<long[]> inFlight = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        private long now;
+        private int calls;
+        private int rejected;
+
+        Simulation(final int initialLimit, final int perSecond, final double sigma) {
+            this.limit = new ConcurrencyLimit(initialLimit);
+            this.perSecond = perSecond;
+            this.sigma = sigma;
+        }
+
+        void run(final long millis, final double medianMillis) {
+            final long end = now + millis * MILLIS;
+
+            while (now < end) {
+                now += (long) (-Math.log(1 - random.nextDouble()) * 1000 / perSecond * MILLIS);
+                complete();
+
+                calls++;
+                if (limit.tryAcquire()) {
+                    final long rtt = (long) (medianMillis * Math.exp(sigma * random.nextGaussian()) * MILLIS);
+                    inFlight.add(new long[]{now + rtt, rtt});
+                } else {
+                    rejected++;
+                }
+            }
+        }
+
+        private void complete() {
+            while (!inFlight.isEmpty() && inFlight.peek()[0] <= now) {
+                final long[] call = inFlight.poll();
+                limit.release(call[1], true, call[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.client;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopReplicaTest {
+
+    private SnoopReplica replica;
+
+    @Before
+    public void setUp() throws Exception {
+        replica = new SnoopReplica("localhost:8081/snoop-service/", Runnable::run);
+
+        final Field session = SnoopReplica.class.getDeclaredField("session");
+        session.setAccessible(true);
+        session.set(replica, stub(Session.class));
+    }
+
+    @Test
+    public void removingLastInstanceEmptiesReplica() {
+        replica.update("hello", 5, Arrays.asList(config("a")));
+        assertEquals(1, replica.get("hello").get().size());
+
+        replica.update("hello", 6, Collections.emptyList());
+
+        final Optional<List<SnoopConfig>> instances = replica.get("hello");
+        assertTrue(instances.isPresent());
+        assertTrue(instances.get().isEmpty());
+    }
+
+    @Test
+    public void olderPushIsIgnored() {
+        replica.update("hello", 6, Collections.emptyList());
+        replica.update("hello", 5, Arrays.asList(config("a")));
+
+        assertTrue(replica.get("hello").get().isEmpty());
+    }
+
+    private static SnoopConfig config(final String instanceId) {
+        final SnoopConfig config = new SnoopConfig();
+        config.setServiceName("hello");
+        config.setInstanceId(instanceId);
+        config.setServiceHome("http://" + instanceId + ":8080/");
+        config.setServiceRoot("api");
+        return config;
+    }
+
+    /**
+     * An open session, or its basic remote, that accepts everything sent to it.
+     */
+    private static <T> T stub(final Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isOpen":
+                    return true;
+                case "getBasicRemote":
+                    return stub(RemoteEndpoint.Basic.class);
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        }));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Bounded journal of the latest changes to the registry.
+ *
+ * Every change is given the next registry version. The first version is derived from the start time, so that versions
+ * handed out before a restart of the Snoop Service are never mistaken for current ones.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+class ChangeJournal {
+
+   private final RegistryEvent[] entries;
+   private long version;
+
+   ChangeJournal(final int capacity, final long now) {
+      this.entries = new RegistryEvent[capacity];
+      this.version = now * 1000;
+   }
+
+   /**
+    * Records a change.
+    *
+    * @param type The type of change
+    * @param config The configuration of the instance that changed
+    * @return the recorded change
+    */
+   synchronized RegistryEvent append(final RegistryEvent.Type type, final SnoopConfig config) {
+      final RegistryEvent change = new RegistryEvent(type, config, ++version);
+      entries[(int) (version % entries.length)] = change;
+      return change;
+   }
+
+   synchronized long getVersion() {
+      return version;
+   }
+
+   /**
+    * Gets the changes made after a version.
+    *
+    * @param since The version
+    * @return the changes in order, or empty if the version is unknown or too old to be covered by the journal
+    */
+   synchronized Optional<List<RegistryEvent>> since(final long since) {
+
+      if (since > version || version - since > entries.length) {
+         return Optional.empty();
+      }
+
+      final List<RegistryEvent> changes = new ArrayList<>((int) (version - since));
+      for (long v = since + 1; v <= version; v++) {
+         changes.add(entries[(int) (v % entries.length)]);
+      }
+      return Optional.of(changes);
+   }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.nio.ByteBuffer;
+import javax.websocket.Session;
+
+/**
+ * A raw registration or heartbeat as received by one of the WebSocket endpoints, waiting to be applied to the registry.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class IngestMessage {
+
+   /**
+    * The endpoint the message was received by.
+    */
+   enum Source {
+      REGISTRATION, STATUS
+   }
+
+   private final Source source;
+   private final String clientId;
+   private final String text;
+   private final ByteBuffer binary;
+   private final Session session;
+
+   private IngestMessage(final Source source, final String clientId, final String text, final ByteBuffer binary, final Session session) {
+      this.source = source;
+      this.clientId = clientId;
+      this.text = text;
+      this.binary = binary;
+      this.session = session;
+   }
+
+   static IngestMessage text(final Source source, final String clientId, final String text, final Session session) {
+      return new IngestMessage(source, clientId, text, null, session);
+   }
+
+   /**
+    * Creates a binary message. The content is copied, since the container may reuse its buffer.
+    *
+    * @param source The endpoint
+    * @param clientId The service name, if known from the path
+    * @param binary The message
+    * @param session The session it was received over
+    * @return the message
+    */
+   static IngestMessage binary(final Source source, final String clientId, final ByteBuffer binary, final Session session) {
+      final ByteBuffer copy = ByteBuffer.allocate(binary.remaining());
+      copy.put(binary).flip();
+      return new IngestMessage(source, clientId, null, copy, session);
+   }
+
+   Source getSource() {
+      return source;
+   }
+
+   String getClientId() {
+      return clientId;
+   }
+
+   boolean isBinary() {
+      return binary != null;
+   }
+
+   String getText() {
+      return text;
+   }
+
+   ByteBuffer getBinary() {
+      return binary;
+   }
+
+   Session getSession() {
+      return session;
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer with many producers and a single consumer.
+ *
+ * Producers claim a slot by advancing the tail, and publish their element into it. The consumer takes elements in
+ * order from the head and stops at the first slot that is claimed but not yet published. Offering to a full ring fails
+ * at once instead of blocking.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ * @param <T> The type of elements
+ */
+class IngestRing<T> {
+
+   private final AtomicReferenceArray<T> slots;
+   private final int mask;
+   private final AtomicLong tail = new AtomicLong();
+   private volatile long head;
+
+   /**
+    * Creates a ring.
+    *
+    * @param capacity The number of slots, rounded up to a power of two
+    */
+   IngestRing(final int capacity) {
+      final int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+
+      this.slots = new AtomicReferenceArray<>(size);
+      this.mask = size - 1;
+   }
+
+   /**
+    * Adds an element unless the ring is full. May be called from any thread.
+    *
+    * @param element The element
+    * @return true if added, false if the ring is full
+    */
+   boolean offer(final T element) {
+      while (true) {
+         final long t = tail.get();
+         if (t - head > mask) {
+            return false;
+         }
+         if (tail.compareAndSet(t, t + 1)) {
+            slots.lazySet((int) (t & mask), element);
+            return true;
+         }
+      }
+   }
+
+   /**
+    * Takes the published elements in order. Must only be called from the consumer thread.
+    *
+    * @param batch The list to add the elements to
+    * @param max The maximum number of elements to take
+    * @return the number of elements taken
+    */
+   int drain(final List<T> batch, final int max) {
+      long h = head;
+      int taken = 0;
+
+      while (taken < max) {
+         final int index = (int) (h & mask);
+         final T element = slots.get(index);
+         if (element == null) {
+            break;
+         }
+         slots.lazySet(index, null);
+         batch.add(element);
+         head = ++h;
+         taken++;
+      }
+      return taken;
+   }
+
+   /**
+    * The number of elements claimed but not yet taken.
+    *
+    * @return the number of elements
+    */
+   int size() {
+      return (int) Math.max(0, tail.get() - head);
+   }
+
+   int capacity() {
+      return mask + 1;
+   }
+}
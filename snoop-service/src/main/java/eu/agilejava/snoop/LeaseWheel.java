@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel keeping track of the leases of registered instances.
+ *
+ * Each slot holds the instances whose lease expires within one tick. Renewing a lease only moves the expiry time of the
+ * instance, the instance is moved to its new slot the next time its old slot is visited. That keeps heartbeats O(1)
+ * without touching the wheel, while every lease is visited at most a few times per lease period.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+class LeaseWheel {
+
+   private final long tickMillis;
+   private final int mask;
+   private final List<Queue<ServiceInstance>> slots;
+   private volatile long currentTick;
+
+   /**
+    * Creates a wheel.
+    *
+    * @param wheelSize The number of slots, rounded up to a power of two
+    * @param tickMillis The length of a tick in milliseconds
+    * @param now The current time in milliseconds
+    */
+   LeaseWheel(final int wheelSize, final long tickMillis, final long now) {
+      final int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+
+      this.tickMillis = tickMillis;
+      this.mask = size - 1;
+      this.slots = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+         slots.add(new ConcurrentLinkedQueue<>());
+      }
+      this.currentTick = now / tickMillis;
+   }
+
+   /**
+    * Adds the lease of an instance to the wheel.
+    *
+    * @param instance The instance
+    */
+   void schedule(final ServiceInstance instance) {
+      final long tick = Math.max(instance.getExpiresAt() / tickMillis, currentTick + 1);
+      slots.get((int) (tick & mask)).add(instance);
+   }
+
+   /**
+    * Advances the wheel to the given time. Must only be called from one thread at a time.
+    *
+    * @param now The current time in milliseconds
+    * @param expired Called for every instance whose lease has expired
+    */
+   void advance(final long now, final Consumer<ServiceInstance> expired) {
+
+      final long nowTick = now / tickMillis;
+      final long fromTick = Math.max(currentTick + 1, nowTick - mask);
+      final List<ServiceInstance> renewed = new ArrayList<>();
+
+      for (long tick = fromTick; tick <= nowTick; tick++) {
+         final Queue<ServiceInstance> slot = slots.get((int) (tick & mask));
+
+         ServiceInstance instance;
+         while ((instance = slot.poll()) != null) {
+            if (instance.isRemoved()) {
+               continue;
+            }
+            if (instance.isExpired(now)) {
+               expired.accept(instance);
+            } else {
+               renewed.add(instance);
+            }
+         }
+      }
+
+      currentTick = Math.max(currentTick, nowTick);
+      renewed.forEach(this::schedule);
+   }
+}
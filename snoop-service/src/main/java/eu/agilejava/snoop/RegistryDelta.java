@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * The changes to the registry since a given version.
+ *
+ * If the requested version was too old, the delta is a full snapshot where all instances are listed as added and the
+ * consumer should replace its state.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class RegistryDelta {
+
+   private long version;
+   private boolean full;
+   private Collection<SnoopConfig> added = new ArrayList<>();
+   private Collection<SnoopConfig> updated = new ArrayList<>();
+   private Collection<SnoopConfig> removed = new ArrayList<>();
+
+   public long getVersion() {
+      return version;
+   }
+
+   public void setVersion(long version) {
+      this.version = version;
+   }
+
+   public boolean isFull() {
+      return full;
+   }
+
+   public void setFull(boolean full) {
+      this.full = full;
+   }
+
+   public Collection<SnoopConfig> getAdded() {
+      return added;
+   }
+
+   public void setAdded(Collection<SnoopConfig> added) {
+      this.added = added;
+   }
+
+   public Collection<SnoopConfig> getUpdated() {
+      return updated;
+   }
+
+   public void setUpdated(Collection<SnoopConfig> updated) {
+      this.updated = updated;
+   }
+
+   public Collection<SnoopConfig> getRemoved() {
+      return removed;
+   }
+
+   public void setRemoved(Collection<SnoopConfig> removed) {
+      this.removed = removed;
+   }
+}
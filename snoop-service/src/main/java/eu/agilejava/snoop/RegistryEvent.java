@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+/**
+ * Event fired when the instances of a service registered with Snoop change.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class RegistryEvent {
+
+   public enum Type {
+      ADDED, UPDATED, REMOVED
+   }
+
+   private final Type type;
+   private final SnoopConfig config;
+   private final long version;
+
+   public RegistryEvent(final Type type, final SnoopConfig config, final long version) {
+      this.type = type;
+      this.config = config;
+      this.version = version;
+   }
+
+   public Type getType() {
+      return type;
+   }
+
+   public SnoopConfig getConfig() {
+      return config;
+   }
+
+   /**
+    * The registry version that this change resulted in.
+    *
+    * @return the version
+    */
+   public long getVersion() {
+      return version;
+   }
+}
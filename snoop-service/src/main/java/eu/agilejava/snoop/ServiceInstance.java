@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+/**
+ * A single registered instance of a service together with its lease.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+class ServiceInstance {
+
+   private volatile SnoopConfig config;
+   private volatile int configHash;
+   private volatile long expiresAt;
+   private volatile boolean removed;
+
+   ServiceInstance(final SnoopConfig config, final long expiresAt) {
+      this.config = config;
+      this.configHash = config.hashCode();
+      this.expiresAt = expiresAt;
+   }
+
+   SnoopConfig getConfig() {
+      return config;
+   }
+
+   /**
+    * The hash of the configuration, which clients send with their heartbeats.
+    *
+    * @return the hash
+    */
+   int getConfigHash() {
+      return configHash;
+   }
+
+   long getExpiresAt() {
+      return expiresAt;
+   }
+
+   boolean isExpired(final long now) {
+      return expiresAt <= now;
+   }
+
+   boolean isRemoved() {
+      return removed;
+   }
+
+   /**
+    * Renews the lease and replaces the configuration.
+    *
+    * @param config The current configuration
+    * @param expiresAt The new expiry time
+    */
+   void renew(final SnoopConfig config, final long expiresAt) {
+      if (config != this.config) {
+         this.config = config;
+         this.configHash = config.hashCode();
+      }
+      this.expiresAt = expiresAt;
+   }
+
+   /**
+    * Renews the lease and keeps the configuration.
+    *
+    * @param expiresAt The new expiry time
+    */
+   void renew(final long expiresAt) {
+      this.expiresAt = expiresAt;
+   }
+
+   /**
+    * Marks the instance as removed from the registry so that its lease is dropped.
+    */
+   void remove() {
+      this.removed = true;
+   }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The instances of one service.
+ *
+ * Changes are made by one writer at a time (the registry serializes writers per service) and are published as an
+ * immutable snapshot, versioned with the registry version of the latest change. Readers only ever see a complete
+ * snapshot and never wait for writers.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+class ServiceInstances {
+
+   private final Map<String, ServiceInstance> instances = new ConcurrentHashMap<>();
+   private volatile List<ServiceInstance> snapshot = Collections.emptyList();
+   private volatile long version;
+
+   ServiceInstance get(final String instanceId) {
+      return instances.get(instanceId);
+   }
+
+   void put(final ServiceInstance instance) {
+      instances.put(instance.getConfig().getInstanceId(), instance);
+      publish();
+   }
+
+   ServiceInstance remove(final String instanceId) {
+      final ServiceInstance removed = instances.remove(instanceId);
+      if (removed != null) {
+         publish();
+      }
+      return removed;
+   }
+
+   boolean remove(final String instanceId, final ServiceInstance instance) {
+      final boolean removed = instances.remove(instanceId, instance);
+      if (removed) {
+         publish();
+      }
+      return removed;
+   }
+
+   /**
+    * Publishes a new snapshot after the configuration of an instance has changed.
+    */
+   void updated() {
+      publish();
+   }
+
+   /**
+    * Sets the registry version of the latest change to this service.
+    *
+    * @param version The version
+    */
+   void setVersion(final long version) {
+      this.version = version;
+   }
+
+   boolean isEmpty() {
+      return instances.isEmpty();
+   }
+
+   /**
+    * Gets the latest published snapshot.
+    *
+    * @return an immutable list of the instances
+    */
+   List<ServiceInstance> snapshot() {
+      return snapshot;
+   }
+
+   long getVersion() {
+      return version;
+   }
+
+   private void publish() {
+      snapshot = Collections.unmodifiableList(new ArrayList<>(instances.values()));
+   }
+}
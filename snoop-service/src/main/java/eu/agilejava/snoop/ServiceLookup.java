@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * The live instances of a service and the index of the service, as returned by a batch lookup.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class ServiceLookup {
+
+   private String serviceName;
+   private long index;
+   private Collection<SnoopConfig> instances = new ArrayList<>();
+
+   public ServiceLookup() {
+   }
+
+   public ServiceLookup(String serviceName, long index, Collection<SnoopConfig> instances) {
+      this.serviceName = serviceName;
+      this.index = index;
+      this.instances = instances;
+   }
+
+   public String getServiceName() {
+      return serviceName;
+   }
+
+   public void setServiceName(String serviceName) {
+      this.serviceName = serviceName;
+   }
+
+   public long getIndex() {
+      return index;
+   }
+
+   public void setIndex(long index) {
+      this.index = index;
+   }
+
+   public Collection<SnoopConfig> getInstances() {
+      return instances;
+   }
+
+   public void setInstances(Collection<SnoopConfig> instances) {
+      this.instances = instances;
+   }
+}
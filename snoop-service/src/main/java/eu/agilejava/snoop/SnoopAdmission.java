@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+import java.util.logging.Logger;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.json.Json;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+/**
+ * Admission control for clients connecting to register, so that a whole fleet restarting at once does not overload the
+ * Snoop Service.
+ *
+ * Every new session takes a token from the bucket of its source, which is the service it registers, and from a global
+ * bucket. The source is the service name sent by the client rather than its address: the WebSocket API has no
+ * portable way to get the remote address of a session, and the instances of a fleet often share the addresses of
+ * proxies and NAT gateways anyway. A client could pick another service name to get another bucket, but not get past
+ * the global one. A session that is not admitted takes no token. It is sent {"retryAfter": ms} and closed with
+ * {@code TRY_AGAIN_LATER}. The waits handed out are random, spread over the time the bucket needs to admit the clients
+ * it rejected recently, so rejected clients do not come back all at once.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+public class SnoopAdmission {
+
+   private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+   private static final int GLOBAL_RATE = 500;
+   private static final int GLOBAL_BURST = 1000;
+   private static final int SOURCE_RATE = 50;
+   private static final int SOURCE_BURST = 100;
+   private static final long MIN_RETRY_AFTER = 1000;
+   private static final long MAX_RETRY_AFTER = 60000;
+
+   private final LongUnaryOperator random;
+   private final TokenBucket global;
+   private final Map<String, TokenBucket> sources = new ConcurrentHashMap<>();
+   private final AtomicLong admitted = new AtomicLong();
+   private final AtomicLong rejected = new AtomicLong();
+
+   public SnoopAdmission() {
+      this(TokenBucket.RANDOM, System.currentTimeMillis());
+   }
+
+   /**
+    * Creates admission control whose buckets draw the random part of their waits from the given source.
+    *
+    * @param random Draws a random wait below a bound
+    * @param now The current time in milliseconds
+    */
+   SnoopAdmission(final LongUnaryOperator random, final long now) {
+      this.random = random;
+      this.global = new TokenBucket(GLOBAL_RATE, GLOBAL_BURST, MIN_RETRY_AFTER, MAX_RETRY_AFTER, now, random);
+   }
+
+   /**
+    * Admits a new session, or tells the client when to try again and closes the session.
+    *
+    * @param source The source of the session, or null if not known
+    * @param session The session
+    * @return true if admitted
+    */
+   public boolean admit(final String source, final Session session) {
+
+      final long retryAfter = admit(source, System.currentTimeMillis());
+      if (retryAfter == 0) {
+         admitted.incrementAndGet();
+         return true;
+      }
+
+      rejected.incrementAndGet();
+      LOGGER.config(() -> "Session " + session.getId() + " from " + source + " not admitted, retry after " + retryAfter + " ms");
+
+      synchronized (session) {
+         try {
+            session.getBasicRemote().sendText(Json.createObjectBuilder()
+                    .add("retryAfter", retryAfter)
+                    .build().toString());
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Retry after " + retryAfter + " ms"));
+         } catch (IOException e) {
+            LOGGER.warning(e.getMessage());
+         }
+      }
+      return false;
+   }
+
+   /**
+    * The number of sessions admitted since startup.
+    *
+    * @return the number of sessions
+    */
+   public long getAdmitted() {
+      return admitted.get();
+   }
+
+   /**
+    * The number of sessions told to try again later since startup.
+    *
+    * @return the number of sessions
+    */
+   public long getRejected() {
+      return rejected.get();
+   }
+
+   /**
+    * Drops the buckets of sources that have not connected for a while.
+    */
+   @Schedule(minute = "*", hour = "*", persistent = false)
+   public void evictIdleSources() {
+      final long now = System.currentTimeMillis();
+      sources.values().removeIf(bucket -> bucket.isFull(now));
+   }
+
+   /**
+    * Takes a token from the bucket of the source and from the global bucket.
+    *
+    * @param source The source, or null if not known
+    * @param now The current time in milliseconds
+    * @return 0 if admitted, otherwise the time to wait in milliseconds
+    */
+   long admit(final String source, final long now) {
+
+      final TokenBucket bucket = source != null
+              ? sources.computeIfAbsent(source, s -> new TokenBucket(SOURCE_RATE, SOURCE_BURST, MIN_RETRY_AFTER, MAX_RETRY_AFTER, now, random))
+              : null;
+
+      if (bucket != null) {
+         final long retryAfter = bucket.take(now);
+         if (retryAfter > 0) {
+            return retryAfter;
+         }
+      }
+
+      final long retryAfter = global.take(now);
+      if (retryAfter > 0 && bucket != null) {
+         bucket.giveBack();
+      }
+      return retryAfter;
+   }
+}
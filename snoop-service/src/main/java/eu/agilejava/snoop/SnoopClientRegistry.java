@@ -23,64 +23,418 @@
  */
 package eu.agilejava.snoop;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.Schedule;
 import javax.ejb.Singleton;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import static eu.agilejava.snoop.RegistryEvent.Type.ADDED;
+import static eu.agilejava.snoop.RegistryEvent.Type.REMOVED;
+import static eu.agilejava.snoop.RegistryEvent.Type.UPDATED;
 import static java.util.Calendar.getInstance;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
 
 /**
- * Register of clients that have registered themselves. Automatically disregarded after a minute without heartbeat.
+ * Register of clients that have registered themselves. Every service may have several instances, each identified by
+ * its instance id. An instance is automatically evicted when its lease expires without heartbeat. Instances may declare
+ * their own lease when they register, which is kept between {@value #MIN_LEASE_TTL} and {@value #MAX_LEASE_TTL} ms. Every instance that is
+ * added, updated or removed increases the registry version, is recorded in a bounded change journal and is fired as a
+ * {@link RegistryEvent}.
+ *
+ * Clients are advised how often to give heartbeats, and how long their leases last. The interval is stretched as the
+ * number of instances grows, so that the heartbeats arriving at the Snoop Service stay at a sustainable rate, and
+ * tightened again when it shrinks.
+ *
+ * Concurrency is bean managed. Lookups read the latest published snapshot of a service without locking, heartbeats for
+ * known instances only renew the lease, and changes are serialized per service only.
  *
  * @author Ivar Grimstad (ivar.grimstad@gmail.com)
  */
 @Singleton
+@ConcurrencyManagement(BEAN)
 public class SnoopClientRegistry {
 
    private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+   private static final long HEARTBEAT_TIMEOUT = 60000;
+   private static final long MIN_HEARTBEAT_INTERVAL = 5000;
+   private static final long MAX_HEARTBEAT_INTERVAL = 30000;
+   private static final int HEARTBEATS_PER_SECOND = 500;
+   private static final int LEASE_INTERVALS = 3;
+   private static final long MIN_LEASE_TTL = 3000;
+   private static final long MAX_LEASE_TTL = 3600000;
+   private static final long LEASE_TICK = 1000;
+   private static final int LEASE_WHEEL_SIZE = 64;
+   private static final int JOURNAL_SIZE = 4096;
+
+   private final Map<String, ServiceInstances> services = new ConcurrentHashMap<>();
+   private final Map<String, Long> removedVersions = new ConcurrentHashMap<>();
+   private final AtomicBoolean expiring = new AtomicBoolean();
+   private final AtomicInteger instanceCount = new AtomicInteger();
+   private final LeaseWheel leases = new LeaseWheel(LEASE_WHEEL_SIZE, LEASE_TICK, System.currentTimeMillis());
+   private final ChangeJournal journal = new ChangeJournal(JOURNAL_SIZE, System.currentTimeMillis());
 
-   private final Map<String, Long> clients = new ConcurrentHashMap<>();
-   private final Map<String, SnoopConfig> clientConfigurations = new ConcurrentHashMap<>();
+   @Inject
+   private Event<RegistryEvent> registryEvents;
 
    public void register(final SnoopConfig client) {
       Calendar now = getInstance();
-      clients.put(client.getServiceName(), now.getTimeInMillis());
-      clientConfigurations.put(client.getServiceName(), client);
+      final long expiresAt = now.getTimeInMillis() + getLeaseTtl(client);
+
+      if (!renew(client, expiresAt)) {
+         final List<RegistryEvent> changes = new ArrayList<>(1);
+
+         services.compute(client.getServiceName(), (serviceName, instances) -> {
+            if (instances == null) {
+               removedVersions.remove(serviceName);
+            }
+            ServiceInstances serviceInstances = instances != null ? instances : new ServiceInstances();
+            ServiceInstance instance = serviceInstances.get(client.getInstanceId());
 
-      LOGGER.config(() -> "Client: " + client.getServiceName() + " registered up at " + now.getTime());
+            if (instance == null) {
+               instance = new ServiceInstance(client, expiresAt);
+               serviceInstances.put(instance);
+               leases.schedule(instance);
+               instanceCount.incrementAndGet();
+               changes.add(changed(serviceInstances, ADDED, client));
+            } else if (!instance.getConfig().equals(client)) {
+               instance.renew(client, expiresAt);
+               serviceInstances.updated();
+               changes.add(changed(serviceInstances, UPDATED, client));
+            } else {
+               instance.renew(client, expiresAt);
+            }
+            return serviceInstances;
+         });
+
+         changes.forEach(registryEvents::fire);
+      }
+
+      LOGGER.config(() -> "Client: " + client.getServiceName() + " (" + client.getInstanceId() + ") registered up at " + now.getTime());
    }
 
+   /**
+    * Renews the lease of a known instance without changing its configuration.
+    *
+    * @param clientId The service name
+    * @param instanceId The instance id
+    * @return true if the lease was renewed, false if the instance is not registered
+    */
+   public boolean renew(final String clientId, final String instanceId) {
+      final ServiceInstances instances = services.get(clientId);
+      final ServiceInstance instance = instances != null ? instances.get(instanceId) : null;
+
+      if (instance != null && !instance.isRemoved()) {
+         instance.renew(System.currentTimeMillis() + getLeaseTtl(instance.getConfig()));
+         return !instance.isRemoved();
+      }
+      return false;
+   }
+
+   /**
+    * Handles a heartbeat that carries only the hash of the configuration. The lease is renewed without parsing or
+    * allocating a configuration if the hash matches the registered one.
+    *
+    * @param clientId The service name
+    * @param instanceId The instance id
+    * @param configHash The hash of the configuration of the instance
+    * @return true if the lease was renewed, false if the instance must register its full configuration
+    */
+   public boolean heartbeat(final String clientId, final String instanceId, final int configHash) {
+      final ServiceInstances instances = services.get(clientId);
+      final ServiceInstance instance = instances != null ? instances.get(instanceId) : null;
+
+      if (instance != null && !instance.isRemoved() && instance.getConfigHash() == configHash) {
+         instance.renew(System.currentTimeMillis() + getLeaseTtl(instance.getConfig()));
+         return !instance.isRemoved();
+      }
+      return false;
+   }
+
+   /**
+    * The interval at which clients are advised to give heartbeats. It grows with the number of registered instances
+    * to keep the total rate of heartbeats bounded, within a minimum and a maximum, and is rounded to whole seconds so
+    * that it does not change with every instance.
+    *
+    * @return the interval in milliseconds
+    */
+   public long getHeartbeatInterval() {
+      final long interval = instanceCount.get() * 1000L / HEARTBEATS_PER_SECOND;
+      return Math.max(MIN_HEARTBEAT_INTERVAL, Math.min(MAX_HEARTBEAT_INTERVAL, interval / 1000 * 1000));
+   }
+
+   /**
+    * The lease given to instances. It covers several heartbeat intervals, and is never shorter than a minute.
+    *
+    * @return the lease in milliseconds
+    */
+   public long getLeaseTtl() {
+      return Math.max(HEARTBEAT_TIMEOUT, LEASE_INTERVALS * getHeartbeatInterval());
+   }
+
+   /**
+    * The lease given to an instance: the lease it declared, kept within the minimum and maximum, or the advised lease
+    * if it did not declare one.
+    *
+    * @param config The configuration of the instance
+    * @return the lease in milliseconds
+    */
+   public long getLeaseTtl(final SnoopConfig config) {
+      return config.getLeaseTtl() > 0
+              ? Math.max(MIN_LEASE_TTL, Math.min(MAX_LEASE_TTL, config.getLeaseTtl()))
+              : getLeaseTtl();
+   }
+
+   /**
+    * Removes all instances of a service.
+    *
+    * @param clientId The service name
+    */
    public void deRegister(final String clientId) {
-      clients.remove(clientId);
-      clientConfigurations.remove(clientId);
+      final List<RegistryEvent> changes = new ArrayList<>();
+
+      services.computeIfPresent(clientId, (serviceName, instances) -> {
+         instances.snapshot().forEach(instance -> changes.add(removed(instances, instance)));
+         removedVersions.put(serviceName, instances.getVersion());
+         return null;
+      });
+
+      changes.forEach(registryEvents::fire);
 
       LOGGER.warning(() -> "Client: " + clientId + " deregistered at " + Calendar.getInstance().getTime());
    }
 
-   public Set<String> getClients() {
+   /**
+    * Removes a single instance of a service.
+    *
+    * @param clientId The service name
+    * @param instanceId The instance id
+    */
+   public void deRegister(final String clientId, final String instanceId) {
+      final List<RegistryEvent> changes = new ArrayList<>(1);
 
-      return clients.keySet().stream()
-              .filter(c -> clients.get(c) > System.currentTimeMillis() - 60000)
-              .collect(Collectors.toSet());
+      services.computeIfPresent(clientId, (serviceName, instances) -> {
+         final ServiceInstance instance = instances.remove(instanceId);
+         if (instance != null) {
+            changes.add(removed(instances, instance));
+         }
+         return retained(serviceName, instances);
+      });
+
+      changes.forEach(registryEvents::fire);
+
+      LOGGER.warning(() -> "Client: " + clientId + " (" + instanceId + ") deregistered at " + Calendar.getInstance().getTime());
+   }
+
+   /**
+    * Evicts the instances whose lease has expired.
+    */
+   @Schedule(second = "*", minute = "*", hour = "*", persistent = false)
+   public void expireLeases() {
+      if (expiring.compareAndSet(false, true)) {
+         try {
+            final long now = System.currentTimeMillis();
+            leases.advance(now, instance -> expire(instance, now));
+         } finally {
+            expiring.set(false);
+         }
+      }
+   }
+
+   public Set<String> getClients() {
+      return new HashSet<>(services.keySet());
    }
-   
+
    public Collection<SnoopConfig> getServiceConfigs() {
-      return clientConfigurations.values();
+
+      final long now = System.currentTimeMillis();
+
+      return services.values().stream()
+              .flatMap(instances -> instances.snapshot().stream())
+              .filter(i -> !i.isExpired(now))
+              .map(ServiceInstance::getConfig)
+              .collect(Collectors.toList());
+   }
+
+   /**
+    * The current version of the registry. The version is increased for every instance that is added, updated or
+    * removed.
+    *
+    * @return the version
+    */
+   public long getVersion() {
+      return journal.getVersion();
    }
 
-   public Optional<SnoopConfig> getClientConfig(String clientId) {
+   /**
+    * Gets the changes made to the registry after a version. Several changes to the same instance are collapsed into
+    * one. Falls back to a full snapshot if the version is not covered by the change journal.
+    *
+    * @param since The last version seen by the consumer
+    * @return the changes
+    */
+   public RegistryDelta getChangesSince(final long since) {
 
-      if (getClients().contains(clientId)) {
+      final RegistryDelta delta = new RegistryDelta();
+      final Optional<List<RegistryEvent>> changes = journal.since(since);
 
-         return Optional.ofNullable(clientConfigurations.get(clientId));
+      if (changes.isPresent()) {
+         final Map<String, RegistryEvent> first = new HashMap<>();
+         final Map<String, RegistryEvent> last = new LinkedHashMap<>();
+
+         delta.setVersion(since);
+         changes.get().forEach(change -> {
+            final String key = change.getConfig().getServiceName() + "/" + change.getConfig().getInstanceId();
+            first.putIfAbsent(key, change);
+            last.put(key, change);
+            delta.setVersion(change.getVersion());
+         });
+
+         last.forEach((key, change) -> {
+            if (change.getType() == REMOVED) {
+               delta.getRemoved().add(change.getConfig());
+            } else if (change.getType() == ADDED || first.get(key).getType() == ADDED) {
+               delta.getAdded().add(change.getConfig());
+            } else {
+               delta.getUpdated().add(change.getConfig());
+            }
+         });
 
       } else {
-         return Optional.empty();
+         delta.setFull(true);
+         delta.setVersion(journal.getVersion());
+         delta.setAdded(getServiceConfigs());
       }
+
+      return delta;
+   }
+
+   /**
+    * The registry version of the latest change to a service.
+    *
+    * @param clientId The service name
+    * @return the version, the version at which its last instance was removed if it has none, or 0 if it never had any
+    */
+   public long getServiceVersion(final String clientId) {
+      final ServiceInstances instances = services.get(clientId);
+      return instances != null ? instances.getVersion() : removedVersions.getOrDefault(clientId, 0L);
+   }
+
+   /**
+    * Gets the live instances of a service.
+    *
+    * @param clientId The service name
+    * @return the configurations of all instances that have given a heartbeat recently, empty if none
+    */
+   public Collection<SnoopConfig> getServiceInstances(final String clientId) {
+
+      final long now = System.currentTimeMillis();
+
+      final ServiceInstances instances = services.get(clientId);
+
+      if (instances == null) {
+         return Collections.emptyList();
+      }
+
+      return instances.snapshot().stream()
+              .filter(i -> !i.isExpired(now))
+              .map(ServiceInstance::getConfig)
+              .collect(Collectors.toList());
+   }
+
+   /**
+    * Renews the lease of a known instance whose configuration is unchanged without taking any lock.
+    *
+    * @param client The configuration sent with the heartbeat
+    * @param expiresAt The new expiry time
+    * @return true if the lease was renewed
+    */
+   private boolean renew(final SnoopConfig client, final long expiresAt) {
+      final ServiceInstances instances = services.get(client.getServiceName());
+      final ServiceInstance instance = instances != null ? instances.get(client.getInstanceId()) : null;
+
+      if (instance != null && instance.getConfig().equals(client)) {
+         instance.renew(expiresAt);
+         return !instance.isRemoved();
+      }
+      return false;
+   }
+
+   private void expire(final ServiceInstance instance, final long now) {
+      final SnoopConfig config = instance.getConfig();
+      final List<RegistryEvent> changes = new ArrayList<>(1);
+
+      services.computeIfPresent(config.getServiceName(), (serviceName, instances) -> {
+         if (instance.isExpired(now) && instances.remove(config.getInstanceId(), instance)) {
+            changes.add(removed(instances, instance));
+         }
+         return retained(serviceName, instances);
+      });
+
+      if (!changes.isEmpty()) {
+         changes.forEach(registryEvents::fire);
+         LOGGER.warning(() -> "Client: " + config.getServiceName() + " (" + config.getInstanceId() + ") expired at " + Calendar.getInstance().getTime());
+      } else if (!instance.isRemoved()) {
+         leases.schedule(instance);
+      }
+   }
+
+   /**
+    * Keeps the instances of a service in the registry unless there are none left. The version of a service whose last
+    * instance was removed is remembered, so that the removal is seen as newer than every earlier change to it.
+    * Must be called while the service is locked.
+    *
+    * @param serviceName The service name
+    * @param instances The instances of the service
+    * @return the instances, or null to remove the service
+    */
+   private ServiceInstances retained(final String serviceName, final ServiceInstances instances) {
+      if (instances.isEmpty()) {
+         removedVersions.put(serviceName, instances.getVersion());
+         return null;
+      }
+      return instances;
+   }
+
+   /**
+    * Records a change to a service. Must be called while the service is locked.
+    *
+    * @param instances The instances of the service
+    * @param type The type of change
+    * @param config The configuration of the changed instance
+    * @return the recorded change
+    */
+   private RegistryEvent changed(final ServiceInstances instances, final RegistryEvent.Type type, final SnoopConfig config) {
+      final RegistryEvent change = journal.append(type, config);
+      instances.setVersion(change.getVersion());
+      return change;
+   }
+
+   /**
+    * Marks an instance as removed and records the change. Must be called while the service is locked.
+    *
+    * @param instances The instances of the service
+    * @param instance The removed instance
+    * @return the recorded change
+    */
+   private RegistryEvent removed(final ServiceInstances instances, final ServiceInstance instance) {
+      instance.remove();
+      instanceCount.decrementAndGet();
+      return changed(instances, REMOVED, instance.getConfig());
    }
 }
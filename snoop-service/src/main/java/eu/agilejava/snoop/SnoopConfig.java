@@ -26,6 +26,9 @@ package eu.agilejava.snoop;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
@@ -37,9 +40,34 @@ import javax.json.stream.JsonGenerator;
  */
 public class SnoopConfig {
 
+   /**
+    * The WebSocket subprotocol of the binary wire format. A message in this format starts with its type, followed by
+    * the fields as strings of a two byte length and UTF-8 bytes, and the config hash as a four byte integer. A
+    * configuration may end with the lease as an eight byte integer.
+    */
+   public static final String BINARY_SUBPROTOCOL = "snoop-binary";
+   public static final byte BINARY_CONFIG = 1;
+   public static final byte BINARY_HEARTBEAT = 2;
+
+   private String instanceId;
    private String serviceName;
    private String serviceHome;
    private String serviceRoot;
+   private long leaseTtl;
+
+   /**
+    * The id of this particular instance of the service. Defaults to the service home for clients that do not
+    * provide an id.
+    *
+    * @return The instance id
+    */
+   public String getInstanceId() {
+      return instanceId != null ? instanceId : serviceHome;
+   }
+
+   public void setInstanceId(String instanceId) {
+      this.instanceId = instanceId;
+   }
 
    public String getServiceName() {
       return serviceName;
@@ -65,32 +93,110 @@ public class SnoopConfig {
       this.serviceRoot = serviceRoot;
    }
 
+   /**
+    * The lease declared by the instance, which the registry keeps within its minimum and maximum.
+    *
+    * @return the lease in milliseconds, or 0 if the instance uses the lease advised by the registry
+    */
+   public long getLeaseTtl() {
+      return leaseTtl;
+   }
+
+   public void setLeaseTtl(long leaseTtl) {
+      this.leaseTtl = leaseTtl;
+   }
+
+   /**
+    * The hash of the configuration. The lease is only included if declared, so that the hash is the same as for
+    * clients that do not know about leases.
+    *
+    * @return the hash
+    */
+   @Override
+   public int hashCode() {
+      final int hash = Objects.hash(getInstanceId(), serviceName, serviceHome, serviceRoot);
+      return leaseTtl > 0 ? 31 * hash + Long.hashCode(leaseTtl) : hash;
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (this == obj) {
+         return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+         return false;
+      }
+      final SnoopConfig other = (SnoopConfig) obj;
+      return Objects.equals(getInstanceId(), other.getInstanceId())
+              && Objects.equals(serviceName, other.serviceName)
+              && Objects.equals(serviceHome, other.serviceHome)
+              && Objects.equals(serviceRoot, other.serviceRoot)
+              && leaseTtl == other.leaseTtl;
+   }
+
    public String toJSON() {
 
       Writer w = new StringWriter();
       try (JsonGenerator generator = Json.createGenerator(w)) {
 
          generator.writeStartObject()
+                 .write("instanceId", getInstanceId())
                  .write("serviceName", serviceName)
                  .write("serviceHome", serviceHome)
-                 .write("serviceRoot", serviceRoot)
-                 .writeEnd();
+                 .write("serviceRoot", serviceRoot);
+         if (leaseTtl > 0) {
+            generator.write("leaseTtl", leaseTtl);
+         }
+         generator.writeEnd();
       }
 
       return w.toString();
    }
 
-   public static SnoopConfig fromJSON(String json) {
+   /**
+    * Reads a configuration in the binary wire format.
+    *
+    * @param message The message, positioned after its type
+    * @return the configuration
+    */
+   public static SnoopConfig fromBinary(ByteBuffer message) {
 
       SnoopConfig config = new SnoopConfig();
 
+      config.setInstanceId(readString(message));
+      config.setServiceName(readString(message));
+      config.setServiceHome(readString(message));
+      config.setServiceRoot(readString(message));
+      if (message.remaining() >= 8) {
+         config.setLeaseTtl(message.getLong());
+      }
+
+      return config;
+   }
+
+   static String readString(ByteBuffer message) {
+      final byte[] bytes = new byte[message.getShort() & 0xFFFF];
+      message.get(bytes);
+      return new String(bytes, UTF_8);
+   }
+
+   public static SnoopConfig fromJSON(String json) {
+
       try (JsonReader reader = Json.createReader(new StringReader(json))) {
+         return fromJSON(reader.readObject());
+      }
+   }
+
+   public static SnoopConfig fromJSON(JsonObject configJson) {
 
-         JsonObject configJson = reader.readObject();
+      SnoopConfig config = new SnoopConfig();
 
-         config.setServiceName(configJson.getString("serviceName"));
-         config.setServiceHome(configJson.getString("serviceHome"));
-         config.setServiceRoot(configJson.getString("serviceRoot"));
+      config.setServiceName(configJson.getString("serviceName"));
+      config.setServiceHome(configJson.getString("serviceHome"));
+      config.setServiceRoot(configJson.getString("serviceRoot"));
+      config.setInstanceId(configJson.getString("instanceId", config.getServiceHome()));
+      if (configJson.containsKey("leaseTtl")) {
+         config.setLeaseTtl(configJson.getJsonNumber("leaseTtl").longValue());
       }
 
       return config;
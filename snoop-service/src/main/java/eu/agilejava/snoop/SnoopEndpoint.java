@@ -23,35 +23,76 @@
  */
 package eu.agilejava.snoop;
 
-import static eu.agilejava.snoop.SnoopConfig.fromJSON;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.websocket.CloseReason;
 import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
+import static eu.agilejava.snoop.IngestMessage.Source.REGISTRATION;
 
 /**
  * WebSocket endpoint for client registration.
+ *
+ * Registrations are queued in {@link SnoopIngest}, which replies with the status endpoint once the client is
+ * registered. If the queue is full, the session is closed with {@code TRY_AGAIN_LATER} so the client backs off. New
+ * sessions are subject to {@link SnoopAdmission}, per service if the client passes its serviceName as request
+ * parameter.
  * 
  * @author Ivar Grimstad (ivar.grimstad@gmail.com)
  */
-@ServerEndpoint("/snoop")
+@ServerEndpoint(value = "/snoop", subprotocols = SnoopConfig.BINARY_SUBPROTOCOL)
 @Stateless
 public class SnoopEndpoint {
 
    private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
 
    @EJB
-   private SnoopClientRegistry clients;
+   private SnoopIngest ingest;
+
+   @EJB
+   private SnoopAdmission admission;
+
+   @OnOpen
+   public void onOpen(Session session) {
+      final List<String> serviceName = session.getRequestParameterMap().get("serviceName");
+      admission.admit(serviceName != null && !serviceName.isEmpty() ? serviceName.get(0) : null, session);
+   }
 
    @OnMessage
-   public String onMessage(String message) {
+   public void onMessage(String message, Session session) {
       LOGGER.config(() -> "Registering: " + message);
-      
-      SnoopConfig client = fromJSON(message);
-      
-      clients.register(client);
-      return "snoopstatus/" + message;
+
+      if (!ingest.offer(IngestMessage.text(REGISTRATION, null, message, session))) {
+         tryAgainLater(session);
+      }
+   }
+
+   /**
+    * Registers a client in the binary wire format.
+    *
+    * @param message The configuration
+    * @param session The WebSocket session
+    */
+   @OnMessage
+   public void onBinaryMessage(ByteBuffer message, Session session) {
+
+      if (!ingest.offer(IngestMessage.binary(REGISTRATION, null, message, session))) {
+         tryAgainLater(session);
+      }
+   }
+
+   private void tryAgainLater(final Session session) {
+      try {
+         session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Registration queue full"));
+      } catch (IOException e) {
+         LOGGER.warning(e.getMessage());
+      }
    }
 
 }
@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import static eu.agilejava.snoop.SnoopConfig.fromJSON;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.websocket.Session;
+import static eu.agilejava.snoop.IngestMessage.Source.REGISTRATION;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+import static javax.ejb.TransactionAttributeType.NOT_SUPPORTED;
+
+/**
+ * Ingest pipeline for registrations and heartbeats.
+ *
+ * The WebSocket endpoints only enqueue the raw messages they receive, so the container threads are not held by parsing
+ * or by the registry. A single consumer takes the messages in batches and applies them to the registry in the order
+ * they arrived.
+ *
+ * The consumer runs on a thread of its own, started and stopped with the bean, and not on the asynchronous thread pool
+ * of the container, which it would hold for the lifetime of the application. It runs outside any transaction, so every
+ * call it makes to the registry completes in its own, and none of them is rolled back when a transaction spanning the
+ * whole loop would time out.
+ *
+ * The queue is bounded. When it is full, messages are shed and the endpoint tells the client to back off, which smooths
+ * out registration storms such as after a restart of a whole data center.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(BEAN)
+@TransactionAttribute(NOT_SUPPORTED)
+public class SnoopIngest {
+
+   private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+   private static final int CAPACITY = 16384;
+   private static final int BATCH_SIZE = 256;
+   private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(100);
+   private static final long STOP_TIMEOUT = 5000;
+
+   private final IngestRing<IngestMessage> ring = new IngestRing<>(CAPACITY);
+   private final AtomicLong applied = new AtomicLong();
+   private final AtomicLong shed = new AtomicLong();
+   private volatile boolean running = true;
+   private volatile boolean idle;
+   private volatile Thread consumer;
+
+   @EJB
+   private SnoopClientRegistry clients;
+
+   @EJB
+   private SnoopSessions sessions;
+
+   @PostConstruct
+   private void start() {
+      final Thread thread = new Thread(this::consume, "snoop-ingest");
+      thread.setDaemon(true);
+      consumer = thread;
+      thread.start();
+   }
+
+   @PreDestroy
+   private void stop() {
+      running = false;
+      final Thread current = consumer;
+      if (current != null) {
+         LockSupport.unpark(current);
+         try {
+            current.join(STOP_TIMEOUT);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Enqueues a message received by an endpoint.
+    *
+    * @param message The message
+    * @return true if enqueued, false if the queue is full and the message was shed
+    */
+   public boolean offer(final IngestMessage message) {
+
+      if (!ring.offer(message)) {
+         if (shed.getAndIncrement() % 1000 == 0) {
+            LOGGER.warning(() -> "Ingest queue full, " + shed.get() + " messages shed so far");
+         }
+         return false;
+      }
+
+      if (idle) {
+         final Thread current = consumer;
+         if (current != null) {
+            LockSupport.unpark(current);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * The consumer. Runs until the application stops.
+    */
+   private void consume() {
+
+      final List<IngestMessage> batch = new ArrayList<>(BATCH_SIZE);
+
+      while (running) {
+         if (ring.drain(batch, BATCH_SIZE) == 0) {
+            idle = true;
+            if (ring.size() == 0) {
+               LockSupport.parkNanos(this, IDLE_PARK);
+            }
+            idle = false;
+            continue;
+         }
+
+         batch.forEach(this::apply);
+         applied.addAndGet(batch.size());
+         batch.clear();
+      }
+
+      consumer = null;
+      LOGGER.config("Ingest consumer stopped");
+   }
+
+   /**
+    * The number of messages waiting to be applied.
+    *
+    * @return the number of messages
+    */
+   public int getBacklog() {
+      return ring.size();
+   }
+
+   /**
+    * The number of messages applied to the registry since startup.
+    *
+    * @return the number of messages
+    */
+   public long getApplied() {
+      return applied.get();
+   }
+
+   /**
+    * The number of messages shed because the queue was full since startup.
+    *
+    * @return the number of messages
+    */
+   public long getShed() {
+      return shed.get();
+   }
+
+   private void apply(final IngestMessage message) {
+      try {
+         if (message.getSource() == REGISTRATION) {
+            applyRegistration(message);
+         } else {
+            applyStatus(message);
+         }
+      } catch (RuntimeException e) {
+         LOGGER.log(Level.WARNING, "Could not apply message from " + message.getClientId(), e);
+      }
+   }
+
+   /**
+    * Registers a client that registered with the registration endpoint, and replies with its status endpoint.
+    *
+    * @param message The configuration
+    */
+   private void applyRegistration(final IngestMessage message) {
+
+      final SnoopConfig client;
+      if (message.isBinary()) {
+         final ByteBuffer binary = message.getBinary();
+         if (binary.get() != SnoopConfig.BINARY_CONFIG) {
+            throw new IllegalArgumentException("Not a configuration");
+         }
+         client = SnoopConfig.fromBinary(binary);
+      } else {
+         client = fromJSON(message.getText());
+      }
+
+      clients.register(client);
+      sessions.send(message.getSession(), "snoopstatus/" + (message.isBinary() ? client.toJSON() : message.getText()));
+   }
+
+   /**
+    * Applies a registration, heartbeat or deregistration received by the status endpoint. See
+    * {@link SnoopStatusEndpoint}.
+    *
+    * @param message The message
+    */
+   private void applyStatus(final IngestMessage message) {
+
+      final String clientId = message.getClientId();
+      final Session session = message.getSession();
+
+      if (message.isBinary()) {
+         final ByteBuffer binary = message.getBinary();
+         final byte type = binary.get();
+
+         if (type == SnoopConfig.BINARY_HEARTBEAT) {
+            heartbeat(clientId, SnoopConfig.readString(binary), binary.getInt(), session);
+         } else if (type == SnoopConfig.BINARY_CONFIG) {
+            register(SnoopConfig.fromBinary(binary), session);
+         } else {
+            LOGGER.warning(() -> "Client: " + clientId + ", unknown message type: " + type);
+         }
+
+      } else if (!message.getText().isEmpty()) {
+         final JsonObject json;
+         try (JsonReader reader = Json.createReader(new StringReader(message.getText()))) {
+            json = reader.readObject();
+         }
+
+         if (!json.containsKey("serviceHome") && json.containsKey("configHash")) {
+            heartbeat(clientId, json.getString("instanceId"), json.getInt("configHash"), session);
+         } else {
+            register(fromJSON(json), session);
+         }
+
+      } else {
+         final List<String> instanceId = session.getRequestParameterMap().get("instanceId");
+         if (instanceId != null && !instanceId.isEmpty()) {
+            clients.deRegister(clientId, instanceId.get(0));
+         } else {
+            clients.deRegister(clientId);
+         }
+      }
+   }
+
+   /**
+    * Registers an instance and binds its lease to the session, unless the session was closed while the registration
+    * was queued.
+    *
+    * @param config The configuration
+    * @param session The session
+    */
+   private void register(final SnoopConfig config, final Session session) {
+      if (session.isOpen()) {
+         clients.register(config);
+         sessions.bind(session, config);
+      }
+   }
+
+   private void heartbeat(final String clientId, final String instanceId, final int configHash, final Session session) {
+      if (!clients.heartbeat(clientId, instanceId, configHash)) {
+         sessions.send(session, Json.createObjectBuilder()
+                 .add("configRequired", true)
+                 .build().toString());
+      }
+   }
+}
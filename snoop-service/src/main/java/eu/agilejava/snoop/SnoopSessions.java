@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.json.Json;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+/**
+ * Binds the leases of registered instances to the WebSocket sessions they registered over.
+ *
+ * Bound sessions are pinged at the heartbeat interval advised by {@link SnoopClientRegistry}, and often enough to
+ * renew short leases declared by the instance. Every pong renews the lease, so the client does not need to send
+ * heartbeats, and the pings are the heartbeats whose rate the advice keeps bounded. The instance is removed as soon as
+ * its session is closed or fails, and a session that misses three pings, or stops answering within its lease, is
+ * closed.
+ *
+ * Clients are told the heartbeat interval and lease when they bind, and again with the next ping when the advice has
+ * changed.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+public class SnoopSessions {
+
+   private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+   private static final long MIN_PING_INTERVAL = 1000;
+   private static final int MISSED_PINGS = 3;
+
+   private final Map<String, Binding> bound = new ConcurrentHashMap<>();
+   private final Map<Session, Binding> bindings = new ConcurrentHashMap<>();
+
+   @EJB
+   private SnoopClientRegistry clients;
+
+   /**
+    * Binds the lease of an instance to the session it registered over, and tells the client so. A session that is
+    * already bound and registers again, for instance with a changed configuration or lease, keeps its binding and is
+    * acknowledged again with the lease it now has.
+    *
+    * @param session The session
+    * @param config The configuration of the instance
+    */
+   public void bind(final Session session, final SnoopConfig config) {
+
+      Binding binding = bindings.get(session);
+
+      if (binding == null) {
+         binding = new Binding(session, config.getServiceName(), config.getInstanceId(), System.currentTimeMillis());
+         bindings.put(session, binding);
+
+         final Binding previous = bound.put(binding.getKey(), binding);
+         if (previous != null && previous.getSession() != session) {
+            bindings.remove(previous.getSession(), previous);
+            close(previous.getSession(), "Replaced by a new session");
+         }
+      }
+
+      final long heartbeatInterval = clients.getHeartbeatInterval();
+      binding.setLeaseTtl(config.getLeaseTtl() > 0 ? clients.getLeaseTtl(config) : 0);
+      binding.setHeartbeatInterval(heartbeatInterval);
+
+      send(session, Json.createObjectBuilder()
+              .add("sessionBound", true)
+              .add("configHash", config.hashCode())
+              .add("heartbeatInterval", heartbeatInterval)
+              .add("leaseTtl", clients.getLeaseTtl(config))
+              .build().toString());
+
+      LOGGER.config(() -> "Session " + session.getId() + " bound to " + config.getServiceName() + " (" + config.getInstanceId() + ")");
+   }
+
+   /**
+    * Renews the lease of the instance bound to a session that answered a ping. If the instance is no longer
+    * registered, for instance because its lease expired, the client is asked for its configuration.
+    *
+    * @param session The session
+    */
+   public void pong(final Session session) {
+
+      final Binding binding = bindings.get(session);
+
+      if (binding != null) {
+         binding.setLastPong(System.currentTimeMillis());
+         if (!clients.renew(binding.getServiceName(), binding.getInstanceId())) {
+            send(session, Json.createObjectBuilder()
+                    .add("configRequired", true)
+                    .build().toString());
+         }
+      }
+   }
+
+   /**
+    * Removes the instance bound to a session that was closed or failed, unless the instance has registered over
+    * another session since.
+    *
+    * @param session The session
+    */
+   public void unbind(final Session session) {
+
+      final Binding binding = bindings.remove(session);
+
+      if (binding != null && bound.remove(binding.getKey(), binding)) {
+         clients.deRegister(binding.getServiceName(), binding.getInstanceId());
+      }
+   }
+
+   /**
+    * Pings the bound sessions that are due, at the advised heartbeat interval or a third of their declared lease, and
+    * closes those that have not answered for a while. Sessions that were advised another heartbeat interval than the
+    * current one are told the new advice.
+    */
+   @Schedule(second = "*", minute = "*", hour = "*", persistent = false)
+   public void ping() {
+
+      final long now = System.currentTimeMillis();
+      final long heartbeatInterval = clients.getHeartbeatInterval();
+      final long advisedLease = clients.getLeaseTtl();
+
+      bindings.values().forEach(binding -> {
+         final Session session = binding.getSession();
+         final long leaseTtl = binding.getLeaseTtl() > 0 ? binding.getLeaseTtl() : advisedLease;
+         final long pingInterval = Math.max(MIN_PING_INTERVAL, Math.min(heartbeatInterval, leaseTtl / 3));
+
+         if (!session.isOpen()) {
+            unbind(session);
+         } else if (now - binding.getLastPong() > Math.min(MISSED_PINGS * pingInterval, leaseTtl)) {
+            LOGGER.warning(() -> "Session " + session.getId() + " did not answer pings");
+            close(session, "No pong");
+            unbind(session);
+         } else if (now - binding.getLastPing() >= pingInterval) {
+            binding.setLastPing(now);
+            if (binding.getHeartbeatInterval() != heartbeatInterval) {
+               binding.setHeartbeatInterval(heartbeatInterval);
+               send(session, Json.createObjectBuilder()
+                       .add("heartbeatInterval", heartbeatInterval)
+                       .add("leaseTtl", leaseTtl)
+                       .build().toString());
+            }
+            synchronized (session) {
+               try {
+                  session.getAsyncRemote().sendPing(ByteBuffer.allocate(0));
+               } catch (IOException e) {
+                  LOGGER.warning(e.getMessage());
+               }
+            }
+         }
+      });
+   }
+
+   /**
+    * Sends a message to a client.
+    *
+    * @param session The session
+    * @param message The message
+    */
+   public void send(final Session session, final String message) {
+      if (session.isOpen()) {
+         synchronized (session) {
+            session.getAsyncRemote().sendText(message);
+         }
+      }
+   }
+
+   private void close(final Session session, final String reason) {
+      try {
+         session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, reason));
+      } catch (IOException e) {
+         LOGGER.warning(e.getMessage());
+      }
+   }
+
+   /**
+    * The instance bound to a session, and the state of its pings. Pongs arrive on container threads, pings are sent by
+    * the timer and bindings are made by the ingest consumer, so the state is held in volatile fields.
+    */
+   private static final class Binding {
+
+      private final Session session;
+      private final String serviceName;
+      private final String instanceId;
+      private volatile long lastPong;
+      private volatile long lastPing;
+      private volatile long leaseTtl;
+      private volatile long heartbeatInterval;
+
+      Binding(final Session session, final String serviceName, final String instanceId, final long now) {
+         this.session = session;
+         this.serviceName = serviceName;
+         this.instanceId = instanceId;
+         this.lastPong = now;
+         this.lastPing = now;
+      }
+
+      Session getSession() {
+         return session;
+      }
+
+      String getServiceName() {
+         return serviceName;
+      }
+
+      String getInstanceId() {
+         return instanceId;
+      }
+
+      String getKey() {
+         return serviceName + "/" + instanceId;
+      }
+
+      long getLastPong() {
+         return lastPong;
+      }
+
+      void setLastPong(final long lastPong) {
+         this.lastPong = lastPong;
+      }
+
+      long getLastPing() {
+         return lastPing;
+      }
+
+      void setLastPing(final long lastPing) {
+         this.lastPing = lastPing;
+      }
+
+      /**
+       * @return the lease declared by the instance, or 0 if it follows the advised lease
+       */
+      long getLeaseTtl() {
+         return leaseTtl;
+      }
+
+      void setLeaseTtl(final long leaseTtl) {
+         this.leaseTtl = leaseTtl;
+      }
+
+      long getHeartbeatInterval() {
+         return heartbeatInterval;
+      }
+
+      void setHeartbeatInterval(final long heartbeatInterval) {
+         this.heartbeatInterval = heartbeatInterval;
+      }
+   }
+}
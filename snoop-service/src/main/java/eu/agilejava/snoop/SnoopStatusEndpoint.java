@@ -23,20 +23,38 @@
  */
 package eu.agilejava.snoop;
 
-import static eu.agilejava.snoop.SnoopConfig.fromJSON;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.PongMessage;
+import javax.websocket.Session;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
+import static eu.agilejava.snoop.IngestMessage.Source.STATUS;
 
 /**
  * WebSocket endpoint for heartbeats.
  *
+ * The lease of an instance that registers here is bound to its session: it is renewed by the pongs to the pings of
+ * {@link SnoopSessions}, and the instance is removed as soon as the session is closed.
+ *
+ * Messages are JSON, or in the binary wire format if the client negotiated the {@value SnoopConfig#BINARY_SUBPROTOCOL}
+ * subprotocol. Replies are always JSON.
+ *
+ * Messages are queued in {@link SnoopIngest} and applied to the registry off the container thread. When the queue is
+ * full, registrations and heartbeats are shed and deregistrations are applied at once. New sessions are subject to
+ * {@link SnoopAdmission} per service.
+ *
  * @author Ivar Grimstad (ivar.grimstad@gmail.com)
  */
-@ServerEndpoint("/snoopstatus/{clientId}")
+@ServerEndpoint(value = "/snoopstatus/{clientId}", subprotocols = SnoopConfig.BINARY_SUBPROTOCOL)
 @Stateless
 public class SnoopStatusEndpoint {
 
@@ -45,23 +63,95 @@ public class SnoopStatusEndpoint {
    @EJB
    private SnoopClientRegistry clients;
 
+   @EJB
+   private SnoopSessions sessions;
+
+   @EJB
+   private SnoopIngest ingest;
+
+   @EJB
+   private SnoopAdmission admission;
+
+   @OnOpen
+   public void onOpen(@PathParam("clientId") String clientId, Session session) {
+      admission.admit(clientId, session);
+   }
+
    /**
     * Heartbeat endpoint.
     * Registers that the client is still there and updates configuration
-    * if changed.
+    * if changed. A heartbeat may carry only the instanceId and the
+    * configHash of the configuration, and is answered with
+    * {"configRequired": true} if the configuration is not known. An empty
+    * message deregisters the instance given by the instanceId request
+    * parameter, or all instances of the service if the parameter is missing.
     * 
     * @param clientId The client id
     * @param applicationConfig The updated configuration
+    * @param session The WebSocket session
     */
    @OnMessage
-   public void onMessage(@PathParam("clientId") String clientId, String applicationConfig) {
+   public void onMessage(@PathParam("clientId") String clientId, String applicationConfig, Session session) {
 
       LOGGER.config(() -> "Client: " + clientId + ", status: " + applicationConfig);
 
-      if (applicationConfig != null && !applicationConfig.isEmpty()) {
-         clients.register(fromJSON(applicationConfig));
+      final String message = applicationConfig != null ? applicationConfig : "";
+      if (!ingest.offer(IngestMessage.text(STATUS, clientId, message, session))) {
+         shed(clientId, message.isEmpty(), session);
+      }
+   }
+
+   /**
+    * Heartbeat endpoint for the binary wire format.
+    *
+    * @param clientId The client id
+    * @param message The registration or heartbeat
+    * @param session The WebSocket session
+    */
+   @OnMessage
+   public void onBinaryMessage(@PathParam("clientId") String clientId, ByteBuffer message, Session session) {
+
+      if (!ingest.offer(IngestMessage.binary(STATUS, clientId, message, session))) {
+         shed(clientId, false, session);
+      }
+   }
+
+   @OnMessage
+   public void onPong(PongMessage pong, Session session) {
+      sessions.pong(session);
+   }
+
+   /**
+    * Handles a message that was shed because the ingest queue is full. Registrations and heartbeats are dropped, the
+    * client sends them again with its next heartbeat while a bound lease is kept alive by pings. Deregistrations are
+    * applied at once.
+    *
+    * @param clientId The client id
+    * @param deregistration true if the message was a deregistration
+    * @param session The WebSocket session
+    */
+   private void shed(final String clientId, final boolean deregistration, final Session session) {
+      if (deregistration) {
+         List<String> instanceId = session.getRequestParameterMap().get("instanceId");
+         if (instanceId != null && !instanceId.isEmpty()) {
+            clients.deRegister(clientId, instanceId.get(0));
+         } else {
+            clients.deRegister(clientId);
+         }
       } else {
-         clients.deRegister(clientId);
+         LOGGER.config(() -> "Client: " + clientId + ", message shed");
       }
    }
+
+   @OnClose
+   public void onClose(Session session, CloseReason reason) {
+      LOGGER.config(() -> "Session " + session.getId() + " closed: " + reason.getReasonPhrase());
+      sessions.unbind(session);
+   }
+
+   @OnError
+   public void onError(Session session, Throwable throwable) {
+      LOGGER.warning(() -> "Session " + session.getId() + " failed: " + throwable.getMessage());
+      sessions.unbind(session);
+   }
 }
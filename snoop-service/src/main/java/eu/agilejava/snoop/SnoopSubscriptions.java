@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.enterprise.event.Observes;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.websocket.Session;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+/**
+ * Keeps track of the WebSocket sessions subscribing to changes of services, and pushes the current instances of a
+ * service to its subscribers whenever it changes.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+public class SnoopSubscriptions {
+
+   private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+
+   private final Map<String, Set<Session>> subscribers = new ConcurrentHashMap<>();
+
+   @EJB
+   private SnoopClientRegistry clients;
+
+   /**
+    * Subscribes a session to a service and pushes the current instances of the service to it.
+    *
+    * @param serviceName The service name
+    * @param session The subscribing session
+    */
+   public void subscribe(final String serviceName, final Session session) {
+      subscribers.computeIfAbsent(serviceName, s -> ConcurrentHashMap.newKeySet()).add(session);
+      push(serviceName, session);
+
+      LOGGER.config(() -> "Session " + session.getId() + " subscribed to " + serviceName);
+   }
+
+   /**
+    * Removes all subscriptions of a session.
+    *
+    * @param session The session
+    */
+   public void unsubscribe(final Session session) {
+      subscribers.keySet().forEach(serviceName -> subscribers.computeIfPresent(serviceName, (s, sessions) -> {
+         sessions.remove(session);
+         return sessions.isEmpty() ? null : sessions;
+      }));
+   }
+
+   /**
+    * Pushes the changed service to its subscribers.
+    *
+    * @param event The registry change
+    */
+   @Asynchronous
+   public void onRegistryChange(@Observes RegistryEvent event) {
+      final String serviceName = event.getConfig().getServiceName();
+      final Set<Session> sessions = subscribers.get(serviceName);
+
+      if (sessions != null && !sessions.isEmpty()) {
+         final String message = toJSON(serviceName);
+         sessions.forEach(session -> send(session, message));
+      }
+   }
+
+   private void push(final String serviceName, final Session session) {
+      send(session, toJSON(serviceName));
+   }
+
+   /**
+    * Sends a message to one subscriber. Changes are pushed concurrently, so sends to the same session are serialized
+    * and wait for each other. A subscriber that cannot be sent to is closed, so that it reconnects and gets the current
+    * instances again, and does not keep the other subscribers from being pushed to.
+    */
+   private void send(final Session session, final String message) {
+      if (session.isOpen()) {
+         try {
+            synchronized (session) {
+               session.getBasicRemote().sendText(message);
+            }
+         } catch (IOException | RuntimeException e) {
+            LOGGER.warning(() -> "Could not push to session " + session.getId() + ": " + e.getMessage());
+            unsubscribe(session);
+            close(session);
+         }
+      } else {
+         unsubscribe(session);
+      }
+   }
+
+   private void close(final Session session) {
+      try {
+         session.close();
+      } catch (IOException | RuntimeException e) {
+         LOGGER.fine(() -> "Could not close session " + session.getId() + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * Creates the message holding the current instances of a service.
+    *
+    * @param serviceName The service name
+    * @return the message
+    */
+   private String toJSON(final String serviceName) {
+
+      final long index = clients.getServiceVersion(serviceName);
+      final Collection<SnoopConfig> instances = clients.getServiceInstances(serviceName);
+
+      final JsonArrayBuilder instancesJson = Json.createArrayBuilder();
+      instances.forEach(config -> instancesJson.add(Json.createObjectBuilder()
+              .add("instanceId", config.getInstanceId())
+              .add("serviceName", config.getServiceName())
+              .add("serviceHome", config.getServiceHome())
+              .add("serviceRoot", config.getServiceRoot())));
+
+      return Json.createObjectBuilder()
+              .add("serviceName", serviceName)
+              .add("index", index)
+              .add("instances", instancesJson)
+              .build().toString();
+   }
+}
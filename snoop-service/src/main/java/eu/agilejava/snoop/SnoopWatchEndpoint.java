@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.logging.Logger;
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+/**
+ * WebSocket endpoint for consumers subscribing to changes of services.
+ *
+ * Every message is the name of a service to subscribe to. The current instances of the service are pushed
+ * immediately, and again every time the service changes.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+@ServerEndpoint("/snoopwatch")
+@Stateless
+public class SnoopWatchEndpoint {
+
+   private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+
+   @EJB
+   private SnoopSubscriptions subscriptions;
+
+   @OnMessage
+   public void onMessage(String serviceName, Session session) {
+      LOGGER.config(() -> "Subscribing to: " + serviceName);
+
+      if (serviceName != null && !serviceName.isEmpty()) {
+         subscriptions.subscribe(serviceName, session);
+      }
+   }
+
+   @OnClose
+   public void onClose(Session session) {
+      subscriptions.unsubscribe(session);
+   }
+
+   @OnError
+   public void onError(Session session, Throwable t) {
+      LOGGER.warning(() -> "Subscription failed: " + t.getMessage());
+      subscriptions.unsubscribe(session);
+   }
+}
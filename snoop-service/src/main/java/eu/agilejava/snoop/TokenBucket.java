@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Token bucket for admission control.
+ *
+ * A caller that finds the bucket empty takes no token. It is told to come back after a random wait instead, spread over
+ * the time the bucket needs to admit all callers it rejected recently, so that rejected callers come back at about the
+ * rate the bucket can admit them rather than all at once.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+class TokenBucket {
+
+   private static final long DEMAND_WINDOW = 1000;
+
+   /**
+    * Draws a random wait from 0 up to, but not including, the bound.
+    */
+   static final LongUnaryOperator RANDOM = bound -> ThreadLocalRandom.current().nextLong(bound);
+
+   private final double tokensPerMilli;
+   private final double capacity;
+   private final long minWait;
+   private final long maxWait;
+   private final LongUnaryOperator random;
+   private double tokens;
+   private long refilledAt;
+   private long windowStart;
+   private int rejectedInWindow;
+   private int rejectedInLastWindow;
+
+   /**
+    * Creates a full bucket.
+    *
+    * @param perSecond The number of tokens added per second
+    * @param burst The maximum number of tokens
+    * @param minWait The shortest wait handed out, in milliseconds
+    * @param maxWait The longest wait handed out, in milliseconds
+    * @param now The current time in milliseconds
+    */
+   TokenBucket(final int perSecond, final int burst, final long minWait, final long maxWait, final long now) {
+      this(perSecond, burst, minWait, maxWait, now, RANDOM);
+   }
+
+   /**
+    * Creates a full bucket that draws the random part of its waits from the given source.
+    *
+    * @param perSecond The number of tokens added per second
+    * @param burst The maximum number of tokens
+    * @param minWait The shortest wait handed out, in milliseconds
+    * @param maxWait The longest wait handed out, in milliseconds
+    * @param now The current time in milliseconds
+    * @param random Draws a random wait below a bound
+    */
+   TokenBucket(final int perSecond, final int burst, final long minWait, final long maxWait, final long now,
+           final LongUnaryOperator random) {
+      this.random = random;
+      this.tokensPerMilli = perSecond / 1000.0;
+      this.capacity = burst;
+      this.minWait = minWait;
+      this.maxWait = maxWait;
+      this.tokens = burst;
+      this.refilledAt = now;
+      this.windowStart = now;
+   }
+
+   /**
+    * Takes a token if there is one.
+    *
+    * @param now The current time in milliseconds
+    * @return 0 if a token was taken, otherwise the time to wait in milliseconds before trying again
+    */
+   synchronized long take(final long now) {
+      refill(now);
+
+      if (tokens >= 1) {
+         tokens--;
+         return 0;
+      }
+
+      if (now - windowStart >= DEMAND_WINDOW) {
+         rejectedInLastWindow = now - windowStart < 2 * DEMAND_WINDOW ? rejectedInWindow : 0;
+         rejectedInWindow = 0;
+         windowStart = now;
+      }
+      rejectedInWindow++;
+
+      final long nextToken = (long) Math.ceil((1 - tokens) / tokensPerMilli);
+      final long backlog = (long) ((rejectedInWindow + rejectedInLastWindow) / tokensPerMilli);
+      final long spread = Math.min(maxWait, Math.max(minWait, backlog));
+
+      return Math.min(maxWait, Math.max(minWait, nextToken) + random.applyAsLong(spread + 1));
+   }
+
+   /**
+    * Gives back a token that was taken but not used.
+    */
+   synchronized void giveBack() {
+      tokens = Math.min(capacity, tokens + 1);
+   }
+
+   /**
+    * Tells if the bucket is full, so that it can be dropped without changing the outcome for its callers.
+    *
+    * @param now The current time in milliseconds
+    * @return true if full
+    */
+   synchronized boolean isFull(final long now) {
+      refill(now);
+      return tokens >= capacity;
+   }
+
+   private void refill(final long now) {
+      if (now > refilledAt) {
+         tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerMilli);
+         refilledAt = now;
+      }
+   }
+}
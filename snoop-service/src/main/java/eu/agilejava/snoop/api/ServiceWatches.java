@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop.api;
+
+import eu.agilejava.snoop.RegistryEvent;
+import eu.agilejava.snoop.SnoopClientRegistry;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.enterprise.event.Observes;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.ejb.ConcurrencyManagementType.BEAN;
+
+/**
+ * Holds the suspended requests of consumers watching a service, and resumes them when the service changes or the
+ * wait time is up. No thread is held while a request is suspended.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+@Singleton
+@ConcurrencyManagement(BEAN)
+public class ServiceWatches {
+
+   private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
+
+   private final Map<String, Set<Watch>> watches = new ConcurrentHashMap<>();
+
+   @EJB
+   private SnoopClientRegistry snoopClientRegistry;
+
+   /**
+    * Suspends a request until the service has changed from the given index.
+    *
+    * @param serviceId The service name
+    * @param index The service index last seen by the consumer
+    * @param wait The maximum time to wait in seconds
+    * @param response The suspended response
+    * @param current Creates the response from the current state of the service
+    */
+   public void watch(final String serviceId, final long index, final long wait, final AsyncResponse response, final Supplier<Response> current) {
+
+      final Watch watch = new Watch(response, current);
+
+      response.setTimeout(wait, SECONDS);
+      response.setTimeoutHandler(r -> {
+         remove(serviceId, watch);
+         watch.resume();
+      });
+
+      watches.computeIfAbsent(serviceId, s -> ConcurrentHashMap.newKeySet()).add(watch);
+
+      // the service may have changed before the watch was added
+      if (snoopClientRegistry.getServiceVersion(serviceId) != index) {
+         wake(serviceId);
+      }
+   }
+
+   /**
+    * Resumes the watches of a changed service.
+    *
+    * @param event The registry change
+    */
+   @Asynchronous
+   public void onRegistryChange(@Observes RegistryEvent event) {
+      wake(event.getConfig().getServiceName());
+   }
+
+   private void wake(final String serviceId) {
+      final Set<Watch> woken = watches.remove(serviceId);
+
+      if (woken != null) {
+         LOGGER.config(() -> "Resuming " + woken.size() + " watches of " + serviceId);
+         woken.forEach(Watch::resume);
+      }
+   }
+
+   private void remove(final String serviceId, final Watch watch) {
+      watches.computeIfPresent(serviceId, (s, serviceWatches) -> {
+         serviceWatches.remove(watch);
+         return serviceWatches.isEmpty() ? null : serviceWatches;
+      });
+   }
+
+   private static final class Watch {
+
+      private final AsyncResponse response;
+      private final Supplier<Response> current;
+
+      Watch(final AsyncResponse response, final Supplier<Response> current) {
+         this.response = response;
+         this.current = current;
+      }
+
+      void resume() {
+         if (response.isSuspended()) {
+            response.resume(current.get());
+         }
+      }
+   }
+}
@@ -23,18 +23,29 @@
  */
 package eu.agilejava.snoop.api;
 
+import eu.agilejava.snoop.RegistryDelta;
+import eu.agilejava.snoop.ServiceLookup;
 import eu.agilejava.snoop.SnoopClientRegistry;
 import eu.agilejava.snoop.SnoopConfig;
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.ejb.EJB;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
-import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.GenericEntity;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import javax.ws.rs.core.Response;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
 /**
  *
@@ -43,25 +54,109 @@ import javax.ws.rs.core.Response;
 @Path("services")
 public class ServicesResource {
 
+   public static final String VERSION_HEADER = "X-Snoop-Version";
+   public static final String INDEX_HEADER = "X-Snoop-Index";
+
+   private static final long MAX_WAIT = 300;
+   private static final int MAX_BATCH = 1000;
+
    @EJB
    private SnoopClientRegistry snoopClientRegistry;
 
+   @EJB
+   private ServiceWatches serviceWatches;
+
+   /**
+    * Gets all registered instances, or only the changes since a registry version if the since parameter is given.
+    * The current registry version is returned in the {@value #VERSION_HEADER} header.
+    *
+    * @param since The registry version last seen by the consumer
+    * @return all instances, or a {@link RegistryDelta}
+    */
    @GET
    @Produces(APPLICATION_JSON)
-   public Response all() {
+   public Response all(@QueryParam("since") Long since) {
+
+      if (since != null) {
+         final RegistryDelta delta = snoopClientRegistry.getChangesSince(since);
 
+         return Response.ok(delta)
+                 .header(VERSION_HEADER, delta.getVersion())
+                 .header("Access-Control-Allow-Origin", "*").build();
+      }
+
+      final long version = snoopClientRegistry.getVersion();
       final Collection<SnoopConfig> serviceConfigs = snoopClientRegistry.getServiceConfigs();
 
       return Response.ok(new GenericEntity<Collection<SnoopConfig>>(serviceConfigs) {})
+              .header(VERSION_HEADER, version)
               .header("Access-Control-Allow-Origin", "*").build();
    }
 
+   /**
+    * Looks up all live instances of a service. The index of the service is returned in the {@value #INDEX_HEADER}
+    * header.
+    *
+    * If the index parameter is given and equal to the current index of the service, the request blocks until the
+    * service changes or the wait time (in seconds) is up.
+    *
+    * @param serviceId The service name
+    * @param index The service index last seen by the consumer
+    * @param wait The maximum time to wait for a change in seconds
+    * @param response The response, 404 if there are no live instances of the service
+    */
    @GET
    @Produces(APPLICATION_JSON)
    @Path("{serviceId}")
-   public Response lookup(@PathParam("serviceId") String serviceId) {
+   public void lookup(@PathParam("serviceId") String serviceId, @QueryParam("index") Long index,
+           @QueryParam("wait") @DefaultValue("30") long wait, @Suspended AsyncResponse response) {
+
+      if (index != null && index == snoopClientRegistry.getServiceVersion(serviceId)) {
+         serviceWatches.watch(serviceId, index, Math.max(1, Math.min(wait, MAX_WAIT)), response, () -> lookup(serviceId));
+      } else {
+         response.resume(lookup(serviceId));
+      }
+   }
+
+   /**
+    * Looks up the live instances of several services in one call. Services without live instances are returned with
+    * no instances rather than left out.
+    *
+    * @param serviceIds The service names
+    * @return the instances and index of each service, 400 if no or too many services are given
+    */
+   @POST
+   @Path("_lookup")
+   @Consumes(APPLICATION_JSON)
+   @Produces(APPLICATION_JSON)
+   public Response lookupAll(List<String> serviceIds) {
+
+      if (serviceIds == null || serviceIds.isEmpty() || serviceIds.size() > MAX_BATCH) {
+         return Response.status(BAD_REQUEST).build();
+      }
+
+      final List<ServiceLookup> lookups = serviceIds.stream()
+              .distinct()
+              .map(serviceId -> new ServiceLookup(serviceId,
+                      snoopClientRegistry.getServiceVersion(serviceId),
+                      snoopClientRegistry.getServiceInstances(serviceId)))
+              .collect(Collectors.toList());
+
+      return Response.ok(new GenericEntity<List<ServiceLookup>>(lookups) {})
+              .header("Access-Control-Allow-Origin", "*").build();
+   }
+
+   private Response lookup(String serviceId) {
+
+      final long index = snoopClientRegistry.getServiceVersion(serviceId);
+      final Collection<SnoopConfig> instances = snoopClientRegistry.getServiceInstances(serviceId);
+
+      if (instances.isEmpty()) {
+         return Response.status(NOT_FOUND)
+                 .header(INDEX_HEADER, index).build();
+      }
 
-      return Response.ok(snoopClientRegistry.getClientConfig(serviceId)
-              .orElseThrow(NotFoundException::new)).build();
+      return Response.ok(new GenericEntity<Collection<SnoopConfig>>(instances) {})
+              .header(INDEX_HEADER, index).build();
    }
 }
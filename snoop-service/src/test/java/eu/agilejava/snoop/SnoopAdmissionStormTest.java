@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates a fleet of registration clients hitting {@link SnoopAdmission} at once, on a virtual clock. Rejected
+ * clients come back the way SnoopRegistrationClient does: after the larger of its exponential backoff and the
+ * retryAfter plus up to a quarter of jitter. The random draws are seeded, so every run sees the same storm.
+ *
+ * The test asserts how many sessions are admitted per second of the virtual clock, and how long the storm takes to be
+ * admitted. It does not measure the latency of the Snoop Service. The admitted rate is what bounds the load that
+ * reaches the ingest queue and the registry, and so their latency.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopAdmissionStormTest {
+
+   private static final int CLIENTS = 10000;
+
+   @Test
+   public void stormOfManyServicesIsAdmittedAtTheGlobalRate() {
+      final Storm storm = new Storm(100).run();
+
+      assertEquals(CLIENTS, storm.admitted);
+      assertTrue("Admitted more than the global bucket allows: " + storm.peakPerSecond, storm.peakPerSecond <= 500 + 1000);
+      assertTrue("Took " + storm.lastAdmittedAt + " ms", storm.lastAdmittedAt < 60 * 1000);
+   }
+
+   @Test
+   public void stormOfOneServiceIsAdmittedAtTheSourceRate() {
+      final Storm storm = new Storm(1).run();
+
+      assertEquals(CLIENTS, storm.admitted);
+      assertTrue("Admitted more than the source bucket allows: " + storm.peakPerSecond, storm.peakPerSecond <= 50 + 100);
+      assertTrue("Took " + storm.lastAdmittedAt + " ms", storm.lastAdmittedAt < 10 * 60 * 1000);
+   }
+
+   private static class Storm {
+
+      private final int services;
+      private final Random random = new Random(42);
+      private final SnoopAdmission admission = new SnoopAdmission(this::nextLong, 0);
+      private int admitted;
+      private long lastAdmittedAt;
+      private int peakPerSecond;
+
+      Storm(final int services) {
+         this.services = services;
+      }
+
+      Storm run() {
+         final PriorityQueue<long[]> attempts = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+         for (int client = 0; client < CLIENTS; client++) {
+            attempts.add(new long[]{nextLong(100), client, 0});
+         }
+
+         long second = -1;
+         int thisSecond = 0;
+
+         while (!attempts.isEmpty()) {
+            final long[] attempt = attempts.poll();
+            final long at = attempt[0];
+            final long retryAfter = admission.admit("service-" + attempt[1] % services, at);
+
+            if (retryAfter == 0) {
+               admitted++;
+               lastAdmittedAt = at;
+               if (at / 1000 != second) {
+                  second = at / 1000;
+                  thisSecond = 0;
+               }
+               peakPerSecond = Math.max(peakPerSecond, ++thisSecond);
+            } else {
+               final int tries = (int) ++attempt[2];
+               final long delay = Math.max(backoff(tries), retryAfter + nextLong(retryAfter / 4 + 1));
+               attempts.add(new long[]{at + delay, attempt[1], tries});
+            }
+         }
+         return this;
+      }
+
+      private long backoff(final int attempts) {
+         final long ceiling = Math.min(300000, 1000L << Math.min(attempts, 20));
+         return ceiling / 2 + nextLong(ceiling - ceiling / 2 + 1);
+      }
+
+      private long nextLong(final long bound) {
+         return (long) (random.nextDouble() * bound);
+      }
+   }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Contention benchmark of the registry: lookups on a growing number of threads while one thread sends heartbeats as
+ * fast as it can, compared with the same calls serialized by one lock, as container-managed concurrency of the
+ * singleton used to do.
+ *
+ * The numbers depend on the machine, and lookups can only scale up to its number of cores, so they are printed rather
+ * than asserted. After a warm-up run, the test only asserts that lookups do not collapse as threads are added, and that
+ * heartbeats keep arriving at thousands per second meanwhile.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopClientRegistryContentionTest {
+
+   private static final int SERVICES = 100;
+   private static final int INSTANCES = 10;
+   private static final long MEASURE_MILLIS = 500;
+
+   private SnoopClientRegistry registry;
+   private final List<SnoopConfig> configs = new ArrayList<>();
+
+   @Before
+   public void setUp() throws Exception {
+      Logger.getLogger("eu.agilejava.snoop").setLevel(Level.WARNING);
+      registry = SnoopClientRegistryTest.registry(new ArrayList<>());
+
+      for (int service = 0; service < SERVICES; service++) {
+         for (int instance = 0; instance < INSTANCES; instance++) {
+            final SnoopConfig config = SnoopClientRegistryTest.config("service" + service, "instance" + instance);
+            registry.register(config);
+            configs.add(config);
+         }
+      }
+   }
+
+   @Test
+   public void lookupsScaleWhileHeartbeatsArrive() throws InterruptedException {
+
+      final int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+      final Lock global = new ReentrantLock();
+      Result single = null;
+
+      measure(maxThreads, null);
+      System.out.println("threads  lookups/s lock-free  lookups/s one lock  heartbeats/s lock-free");
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+         final Result lockFree = measure(threads, null);
+         final Result locked = measure(threads, global);
+         System.out.printf("%7d  %18.0f  %17.0f  %22.0f%n", threads, lockFree.lookups, locked.lookups, lockFree.heartbeats);
+
+         if (single == null) {
+            single = lockFree;
+         }
+         assertTrue("Lookups collapsed with " + threads + " threads: " + lockFree.lookups,
+                 lockFree.lookups >= single.lookups / 2);
+         assertTrue("Heartbeats starved: " + lockFree.heartbeats, lockFree.heartbeats >= 1000);
+      }
+   }
+
+   /**
+    * Runs lookups on the given number of threads and heartbeats on one more.
+    *
+    * @param threads The number of lookup threads
+    * @param lock The lock serializing all calls, or null to call the registry directly
+    */
+   private Result measure(final int threads, final Lock lock) throws InterruptedException {
+
+      final AtomicBoolean running = new AtomicBoolean(true);
+      final LongAdder lookups = new LongAdder();
+      final LongAdder heartbeats = new LongAdder();
+      final CountDownLatch done = new CountDownLatch(threads + 1);
+      final List<Thread> workers = new ArrayList<>();
+
+      for (int t = 0; t < threads; t++) {
+         final int offset = t;
+         workers.add(new Thread(() -> {
+            int i = offset;
+            while (running.get()) {
+               final String serviceName = "service" + (i++ % SERVICES);
+               call(lock, () -> registry.getServiceInstances(serviceName));
+               lookups.increment();
+            }
+            done.countDown();
+         }));
+      }
+      workers.add(new Thread(() -> {
+         int i = 0;
+         while (running.get()) {
+            final SnoopConfig config = configs.get(i++ % configs.size());
+            call(lock, () -> registry.register(config));
+            heartbeats.increment();
+         }
+         done.countDown();
+      }));
+
+      workers.forEach(Thread::start);
+      final long start = System.nanoTime();
+      Thread.sleep(MEASURE_MILLIS);
+      running.set(false);
+      done.await(10, TimeUnit.SECONDS);
+      final double seconds = (System.nanoTime() - start) / 1e9;
+
+      return new Result(lookups.sum() / seconds, heartbeats.sum() / seconds);
+   }
+
+   private static void call(final Lock lock, final Runnable call) {
+      if (lock == null) {
+         call.run();
+      } else {
+         lock.lock();
+         try {
+            call.run();
+         } finally {
+            lock.unlock();
+         }
+      }
+   }
+
+   private static final class Result {
+
+      private final double lookups;
+      private final double heartbeats;
+
+      Result(final double lookups, final double heartbeats) {
+         this.lookups = lookups;
+         this.heartbeats = heartbeats;
+      }
+   }
+}
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import javax.enterprise.event.Event;
+import javax.enterprise.util.TypeLiteral;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopClientRegistryTest {
+
+   private final List<RegistryEvent> events = new ArrayList<>();
+   private SnoopClientRegistry registry;
+
+   @Before
+   public void setUp() throws Exception {
+      registry = registry(events);
+   }
+
+   @Test
+   public void removingLastInstanceIsNewerThanEveryEarlierChange() {
+      registry.register(config("hello", "a"));
+      registry.register(config("hello", "b"));
+      final long registered = registry.getServiceVersion("hello");
+
+      registry.deRegister("hello", "a");
+      final long oneLeft = registry.getServiceVersion("hello");
+      registry.deRegister("hello", "b");
+      final long removed = registry.getServiceVersion("hello");
+
+      assertTrue(oneLeft > registered);
+      assertTrue(removed > oneLeft);
+      assertTrue(registry.getServiceInstances("hello").isEmpty());
+      assertEquals(removed, events.get(events.size() - 1).getVersion());
+
+      registry.register(config("hello", "c"));
+      assertTrue(registry.getServiceVersion("hello") > removed);
+   }
+
+   @Test
+   public void removingAllInstancesIsNewerThanEveryEarlierChange() {
+      registry.register(config("hello", "a"));
+      registry.register(config("hello", "b"));
+      final long registered = registry.getServiceVersion("hello");
+
+      registry.deRegister("hello");
+
+      assertTrue(registry.getServiceVersion("hello") > registered);
+      assertTrue(registry.getServiceInstances("hello").isEmpty());
+      assertEquals(registry.getServiceVersion("hello"), events.get(events.size() - 1).getVersion());
+   }
+
+   @Test
+   public void unknownServiceHasNoVersion() {
+      assertEquals(0, registry.getServiceVersion("unknown"));
+   }
+
+   static SnoopClientRegistry registry(final List<RegistryEvent> events) throws ReflectiveOperationException {
+      final SnoopClientRegistry registry = new SnoopClientRegistry();
+      final Field registryEvents = SnoopClientRegistry.class.getDeclaredField("registryEvents");
+      registryEvents.setAccessible(true);
+      registryEvents.set(registry, new RecordingEvent(events));
+      return registry;
+   }
+
+   static SnoopConfig config(final String serviceName, final String instanceId) {
+      final SnoopConfig config = new SnoopConfig();
+      config.setServiceName(serviceName);
+      config.setInstanceId(instanceId);
+      config.setServiceHome("http://" + instanceId + ":8080/");
+      config.setServiceRoot("api");
+      return config;
+   }
+
+   /**
+    * Records the fired events instead of delivering them to observers.
+    */
+   private static final class RecordingEvent implements Event<RegistryEvent> {
+
+      private final List<RegistryEvent> events;
+
+      RecordingEvent(final List<RegistryEvent> events) {
+         this.events = events;
+      }
+
+      @Override
+      public synchronized void fire(final RegistryEvent event) {
+         events.add(event);
+      }
+
+      @Override
+      public Event<RegistryEvent> select(final Annotation... qualifiers) {
+         return this;
+      }
+
+      @Override
+      public <U extends RegistryEvent> Event<U> select(final Class<U> subtype, final Annotation... qualifiers) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public <U extends RegistryEvent> Event<U> select(final TypeLiteral<U> subtype, final Annotation... qualifiers) {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Codec benchmark of the wire formats: bytes per message and ns per operation of the JSON encoding against the binary
+ * one, for a registration and a heartbeat. Messages are encoded by the Snoop client and decoded by the Snoop Service,
+ * as they are on the wire.
+ *
+ * The timings depend on the machine, so they are printed rather than asserted. The test asserts that both formats
+ * decode to the same configuration and that the binary messages are smaller.
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class SnoopConfigCodecTest {
+
+   private static final int WARMUP = 5000;
+   private static final int ITERATIONS = 20000;
+
+   private final eu.agilejava.snoop.client.SnoopConfig client = client();
+
+   @Test
+   public void registrationRoundTripsAndBinaryIsSmaller() {
+
+      final String json = client.toJSON();
+      final ByteBuffer binary = client.toBinary();
+      final int jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+      final int binaryBytes = binary.remaining();
+
+      final SnoopConfig fromJson = SnoopConfig.fromJSON(json);
+      final SnoopConfig fromBinary = decode(binary.duplicate());
+      assertEquals(fromJson, fromBinary);
+      assertEquals(client.getLeaseTtl(), fromBinary.getLeaseTtl());
+      assertTrue("Binary " + binaryBytes + " bytes, JSON " + jsonBytes, binaryBytes < jsonBytes);
+
+      System.out.printf("registration  bytes json %4d binary %4d%n", jsonBytes, binaryBytes);
+      System.out.printf("registration  encode ns/op json %6.0f binary %6.0f%n",
+              nanosPerOp(client::toJSON), nanosPerOp(client::toBinary));
+      System.out.printf("registration  decode ns/op json %6.0f binary %6.0f%n",
+              nanosPerOp(() -> SnoopConfig.fromJSON(json)), nanosPerOp(() -> decode(binary.duplicate())));
+   }
+
+   @Test
+   public void heartbeatIsSmallerInBinary() {
+
+      final String json = "{\"instanceId\":\"" + client.getInstanceId() + "\",\"configHash\":" + client.hashCode() + "}";
+      final ByteBuffer binary = client.toBinaryHeartbeat();
+      final int jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+      final int binaryBytes = binary.remaining();
+
+      final ByteBuffer message = binary.duplicate();
+      assertEquals(SnoopConfig.BINARY_HEARTBEAT, message.get());
+      assertEquals(client.getInstanceId(), SnoopConfig.readString(message));
+      assertEquals(client.hashCode(), message.getInt());
+      assertTrue("Binary " + binaryBytes + " bytes, JSON " + jsonBytes, binaryBytes < jsonBytes);
+
+      System.out.printf("heartbeat     bytes json %4d binary %4d%n", jsonBytes, binaryBytes);
+   }
+
+   private static SnoopConfig decode(final ByteBuffer message) {
+      assertEquals(SnoopConfig.BINARY_CONFIG, message.get());
+      return SnoopConfig.fromBinary(message);
+   }
+
+   /**
+    * Measures an operation after warming it up. The results are summed into a field so that the calls cannot be
+    * eliminated.
+    */
+   private double nanosPerOp(final Supplier<?> operation) {
+
+      for (int i = 0; i < WARMUP; i++) {
+         sink += operation.get().hashCode();
+      }
+      final long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+         sink += operation.get().hashCode();
+      }
+      return (System.nanoTime() - start) / (double) ITERATIONS;
+   }
+
+   private int sink;
+
+   private static eu.agilejava.snoop.client.SnoopConfig client() {
+      final eu.agilejava.snoop.client.SnoopConfig config = new eu.agilejava.snoop.client.SnoopConfig();
+      config.setInstanceId("6c1b8a5e-3f0d-4e8a-9b7c-2d4f6a8e0c13");
+      config.setServiceName("orders");
+      config.setServiceHome("http://orders-7.prod.example.com:8080/");
+      config.setServiceRoot("orders/api");
+      config.setLeaseTtl(30000);
+      return config;
+   }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Ivar Grimstad (ivar.grimstad@gmail.com).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package eu.agilejava.snoop;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Ivar Grimstad (ivar.grimstad@gmail.com)
+ */
+public class TokenBucketTest {
+
+   @Test
+   public void admitsBurstThenRate() {
+      final TokenBucket bucket = new TokenBucket(10, 5, 1000, 60000, 0);
+
+      for (int i = 0; i < 5; i++) {
+         assertEquals(0, bucket.take(0));
+      }
+      assertTrue(bucket.take(0) > 0);
+      assertEquals(0, bucket.take(100));
+      assertTrue(bucket.take(100) > 0);
+   }
+
+   @Test
+   public void rejectionTakesNoToken() {
+      final TokenBucket bucket = new TokenBucket(10, 1, 1000, 60000, 0);
+
+      assertEquals(0, bucket.take(0));
+      for (int i = 0; i < 1000; i++) {
+         assertTrue(bucket.take(50) > 0);
+      }
+      assertEquals(0, bucket.take(100));
+   }
+
+   @Test
+   public void retryAfterIsBoundedAndGrowsWithDemand() {
+      final TokenBucket bucket = new TokenBucket(10, 1, 1000, 60000, 0);
+      bucket.take(0);
+
+      long first = bucket.take(1);
+      assertTrue(first >= 1000 && first <= 60000);
+
+      long max = 0;
+      for (int i = 0; i < 500; i++) {
+         final long wait = bucket.take(1);
+         assertTrue(wait >= 1000 && wait <= 60000);
+         max = Math.max(max, wait);
+      }
+      assertTrue("Waits should spread with demand, max " + max, max > 30000);
+   }
+
+   @Test
+   public void fullAfterIdle() {
+      final TokenBucket bucket = new TokenBucket(10, 5, 1000, 60000, 0);
+
+      bucket.take(0);
+      assertFalse(bucket.isFull(0));
+      assertTrue(bucket.isFull(1000));
+   }
+}
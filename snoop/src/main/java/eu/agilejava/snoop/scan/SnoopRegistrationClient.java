@@ -28,47 +28,96 @@ import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
 import eu.agilejava.snoop.SnoopConfigurationException;
 import eu.agilejava.snoop.client.SnoopConfig;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import javax.ejb.ScheduleExpression;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
-import javax.ejb.TimedObject;
 import javax.ejb.Timeout;
 import javax.ejb.Timer;
 import javax.ejb.TimerConfig;
 import javax.ejb.TimerService;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
 import javax.websocket.ClientEndpoint;
+import javax.websocket.CloseReason;
 import javax.websocket.ContainerProvider;
 import javax.websocket.DeploymentException;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
+import javax.websocket.RemoteEndpoint;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 
 /**
- * Registers with Snoop and gives heartbeats every 10 second.
+ * Registers with Snoop and gives heartbeats every 10 seconds, or at the interval advised by the Snoop Service. Every
+ * instance starts its heartbeats at a random phase within the interval, so that a fleet started together does not beat
+ * in the same second. An instance that declares its own lease gives heartbeats at least three times per lease.
+ *
+ * Registration and heartbeats are sent over one long-lived WebSocket session. If the Snoop Service binds the lease to
+ * the session, it keeps the lease alive with WebSocket pings and no heartbeats are sent. The Snoop Service always
+ * binds, so heartbeats only send the full configuration again while the session is not bound, and when the Snoop
+ * Service asks for it. If the session is lost, it is reconnected after a
+ * jittered exponential backoff so that a restarted Snoop Service is not hit by every client at once.
+ *
+ * Messages are JSON unless wireFormat is configured as binary and the Snoop Service supports the binary wire format.
+ *
+ * Registration does not hold up deployment. It starts in the background once the application is initialized and ready
+ * to serve, and is retried a bounded number of times before it is left to the heartbeats to reconnect. If the Snoop
+ * Service is too busy to admit the session, it replies with {"retryAfter": ms}, and the client waits at least that
+ * long before it connects again.
  *
  * @author Ivar Grimstad (ivar.grimstad@gmail.com)
  */
-@ClientEndpoint
+@ClientEndpoint(subprotocols = SnoopConfig.BINARY_SUBPROTOCOL)
 @Singleton
 @Startup
 public class SnoopRegistrationClient {
 
     private static final Logger LOGGER = Logger.getLogger("eu.agilejava.snoop");
-    private static final String REGISTER_ENDPOINT = "snoop";
     private static final String STATUS_ENDPOINT = "snoopstatus/";
+    private static final String REGISTER = "register";
+    private static final String RECONNECT = "reconnect";
+    private static final String HEARTBEAT = "heartbeat";
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 10000;
+    private static final long MIN_HEARTBEAT_INTERVAL = 1000;
+    private static final int MAX_REGISTRATION_ATTEMPTS = 5;
+    private static final long RECONNECT_BASE_DELAY = 1000;
+    private static final long RECONNECT_MAX_DELAY = 300000;
 
     private String serviceUrl;
     private final SnoopConfig applicationConfig = new SnoopConfig();
 
+    private volatile Session session;
+    private volatile int reconnectAttempts;
+    private boolean reconnecting;
+    private volatile boolean sessionBound;
+    private boolean binaryConfigured;
+    private volatile boolean binary;
+    private boolean configured;
+    private long startedAt;
+    private int registrationAttempts;
+    private volatile long registrationTime = -1;
+    private long heartbeatInterval;
+    private volatile long advisedInterval = DEFAULT_HEARTBEAT_INTERVAL;
+    private volatile long leaseTtl;
+    private volatile long retryAfter;
+
     @Resource
     private TimerService timerService;
 
@@ -80,9 +129,10 @@ public class SnoopRegistrationClient {
 
             try {
                 readConfiguration();
+                configured = true;
+                startedAt = System.currentTimeMillis();
 
-                LOGGER.config(() -> "Registering " + applicationConfig.getServiceName());
-                register(applicationConfig.getServiceName());
+                LOGGER.config(() -> "Registering " + applicationConfig.getServiceName() + " when the application is ready");
 
             } catch (SnoopConfigurationException e) {
                 LOGGER.severe(() -> "Snoop is enabled but not configured properly: " + e.getMessage());
@@ -93,19 +143,111 @@ public class SnoopRegistrationClient {
         }
     }
 
+    /**
+     * Starts registration once the application is initialized.
+     *
+     * @param event The initialization event
+     */
+    public void applicationReady(@Observes @Initialized(ApplicationScoped.class) Object event) {
+
+        if (configured) {
+            register();
+        }
+    }
+
+    /**
+     * Registers in the background.
+     */
+    public void register() {
+        timerService.createSingleActionTimer(1, new TimerConfig(REGISTER, false));
+    }
+
+    /**
+     * Registers in the background.
+     *
+     * @param clientId Ignored, the service name is taken from the configuration
+     * @deprecated use {@link #register()}
+     */
+    @Deprecated
     public void register(final String clientId) {
+        register();
+    }
+
+    /**
+     * Tells if the service has registered with Snoop since the application started.
+     *
+     * @return true once registered
+     */
+    public boolean isRegistered() {
+        return registrationTime >= 0;
+    }
+
+    /**
+     * The time it took from the start of the application until the Snoop Service acknowledged the registration.
+     *
+     * @return the time in milliseconds, or -1 if not registered yet
+     */
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    /**
+     * Makes an attempt to register. If it fails, it is retried after a backoff, up to a maximum number of attempts.
+     * Heartbeats start when registered, or when the attempts are used up so that they can keep reconnecting.
+     */
+    private void attemptRegistration() {
+
+        if (connect()) {
+            startHeartbeats();
+
+        } else if (++registrationAttempts < MAX_REGISTRATION_ATTEMPTS) {
+            timerService.createSingleActionTimer(retryDelay(registrationAttempts), new TimerConfig(REGISTER, false));
+
+        } else {
+            LOGGER.severe(() -> "Could not register " + applicationConfig.getServiceName() + " with Snoop after "
+                    + registrationAttempts + " attempts. Retrying with the heartbeats.");
+            reconnectAttempts = registrationAttempts;
+            startHeartbeats();
+        }
+    }
 
-        sendMessage(REGISTER_ENDPOINT, applicationConfig.toJSON());
+    /**
+     * Starts the heartbeats at the advised interval, after a random delay within the interval.
+     */
+    private void startHeartbeats() {
 
-        ScheduleExpression schedule = new ScheduleExpression();
-        schedule.second("*/10").minute("*").hour("*").start(Calendar.getInstance().getTime());
+        heartbeatInterval = nextHeartbeatInterval();
+        final long phase = ThreadLocalRandom.current().nextLong(heartbeatInterval);
 
-        TimerConfig config = new TimerConfig();
-        config.setPersistent(false);
+        timerService.createIntervalTimer(phase, heartbeatInterval, new TimerConfig(HEARTBEAT, false));
+
+        LOGGER.config(() -> "Heartbeats every " + heartbeatInterval + " ms, starting in " + phase + " ms");
+    }
+
+    /**
+     * The interval between heartbeats advised by the Snoop Service, shortened to a third of the lease if the instance
+     * declared a short lease.
+     *
+     * @return the interval in milliseconds
+     */
+    public long getHeartbeatInterval() {
+        return nextHeartbeatInterval();
+    }
 
-        Timer timer = timerService.createCalendarTimer(schedule, config);
+    private long nextHeartbeatInterval() {
+        final long lease = leaseTtl > 0 ? leaseTtl : applicationConfig.getLeaseTtl();
+        return lease > 0
+                ? Math.max(MIN_HEARTBEAT_INTERVAL, Math.min(advisedInterval, lease / 3))
+                : advisedInterval;
+    }
 
-        LOGGER.config(() -> timer.getSchedule().toString());
+    /**
+     * The lease that the Snoop Service gives the instance, if it has told.
+     *
+     * @return the lease in milliseconds, or 0 if not known
+     */
+    public long getLeaseTtl() {
+        return leaseTtl;
     }
 
     /**
@@ -117,47 +259,222 @@ public class SnoopRegistrationClient {
     @OnMessage
     public void onMessage(Session session, String message) {
         LOGGER.config(() -> "Message: " + message);
-        sendMessage(STATUS_ENDPOINT + applicationConfig.getServiceName(), applicationConfig.toJSON());
+
+        try (JsonReader reader = Json.createReader(new StringReader(message))) {
+            final JsonObject reply = reader.readObject();
+            if (reply.containsKey("retryAfter")) {
+                retryAfter = reply.getJsonNumber("retryAfter").longValue();
+                LOGGER.warning(() -> "Snoop is busy, retrying after " + retryAfter + " ms");
+                return;
+            }
+            if (session != this.session) {
+                return;
+            }
+            if (reply.getBoolean("sessionBound", false)) {
+                sessionBound = true;
+            }
+            if (reply.containsKey("configHash")) {
+                reconnectAttempts = 0;
+                if (registrationTime < 0) {
+                    registrationTime = System.currentTimeMillis() - startedAt;
+                    LOGGER.info(() -> "Registered " + applicationConfig.getServiceName() + " with Snoop in " + registrationTime + " ms");
+                }
+            }
+            if (reply.containsKey("heartbeatInterval")) {
+                advisedInterval = Math.max(MIN_HEARTBEAT_INTERVAL, reply.getJsonNumber("heartbeatInterval").longValue());
+            }
+            if (reply.containsKey("leaseTtl")) {
+                leaseTtl = reply.getJsonNumber("leaseTtl").longValue();
+            }
+            if (reply.getBoolean("configRequired", false)) {
+                sendConfig();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warning(() -> "Unexpected message: " + message);
+        }
+    }
+
+    @OnClose
+    public void onClose(Session closed, CloseReason reason) {
+        LOGGER.warning(() -> "Snoop session closed: " + reason.getReasonPhrase());
+
+        if (closed == session) {
+            session = null;
+            sessionBound = false;
+        }
+    }
+
+    @OnError
+    public void onError(Session failed, Throwable throwable) {
+        LOGGER.warning(() -> "Snoop session failed: " + throwable.getMessage());
     }
 
     @Timeout
     public void health(Timer timer) {
+
+        if (REGISTER.equals(timer.getInfo())) {
+            attemptRegistration();
+            return;
+        }
+
+        if (RECONNECT.equals(timer.getInfo())) {
+            reconnecting = false;
+            reconnectAttempts++;
+            if (!connect()) {
+                scheduleReconnect();
+            }
+            return;
+        }
+
         LOGGER.config(() -> "health update: " + Calendar.getInstance().getTime());
         LOGGER.config(() -> "Next: " + timer.getNextTimeout());
-        sendMessage(STATUS_ENDPOINT + applicationConfig.getServiceName(), applicationConfig.toJSON());
+
+        if (nextHeartbeatInterval() != heartbeatInterval) {
+            timer.cancel();
+            startHeartbeats();
+        }
+
+        final Session current = session;
+        if (sessionBound && current != null && current.isOpen()) {
+            return;
+        }
+
+        if (!sendConfig()) {
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * Opens the session to the Snoop Service and registers over it.
+     *
+     * @return true if connected
+     */
+    private boolean connect() {
+
+        try {
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            String uri = serviceUrl + STATUS_ENDPOINT + applicationConfig.getServiceName()
+                    + "?instanceId=" + URLEncoder.encode(applicationConfig.getInstanceId(), "UTF-8");
+            sessionBound = false;
+            session = container.connectToServer(this, URI.create(uri));
+            binary = binaryConfigured && SnoopConfig.BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+            LOGGER.config(() -> "Connected to " + uri + (binary ? " using the binary wire format" : ""));
+
+            return sendConfig();
+
+        } catch (DeploymentException | IOException ex) {
+            LOGGER.warning(ex.getMessage());
+            return false;
+        }
+    }
+
+    private boolean sendConfig() {
+        return binary
+                ? sendBinary(applicationConfig.toBinary())
+                : sendMessage(applicationConfig.toJSON());
+    }
+
+    /**
+     * Schedules an attempt to reconnect, unless one is already scheduled. The delay doubles with every attempt that was
+     * not acknowledged by the Snoop Service, up to a maximum, and is drawn at random from the upper half of that.
+     */
+    private void scheduleReconnect() {
+
+        if (reconnecting) {
+            return;
+        }
+        reconnecting = true;
+
+        final long delay = retryDelay(reconnectAttempts);
+        LOGGER.config(() -> "Reconnecting in " + delay + " ms");
+
+        timerService.createSingleActionTimer(delay, new TimerConfig(RECONNECT, false));
+    }
+
+    /**
+     * The delay before the next attempt to connect: the backoff, but at least the time the Snoop Service asked to wait
+     * plus a little jitter.
+     *
+     * @param attempts The number of failed attempts
+     * @return the delay in milliseconds
+     */
+    private long retryDelay(final int attempts) {
+
+        final long wait = retryAfter;
+        retryAfter = 0;
+
+        final long delay = backoff(attempts);
+        return wait > 0
+                ? Math.max(delay, wait + ThreadLocalRandom.current().nextLong(wait / 4 + 1))
+                : delay;
+    }
+
+    private static long backoff(final int attempts) {
+        final long ceiling = Math.min(RECONNECT_MAX_DELAY, RECONNECT_BASE_DELAY << Math.min(attempts, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
     }
 
     /**
-     * Sends message to the WebSocket server.
+     * Sends message over the session to the WebSocket server.
      *
-     * @param endpoint The server endpoint
      * @param msg The message
-     * @return a return message
+     * @return true if the message was sent
      */
-    private String sendMessage(String endpoint, String msg) {
+    private boolean sendMessage(String msg) {
 
         LOGGER.config(() -> "Sending message: " + msg);
+        return send(remote -> remote.sendText(msg));
+    }
+
+    private boolean sendBinary(ByteBuffer msg) {
+
+        LOGGER.config(() -> "Sending binary message of " + msg.remaining() + " bytes");
+        return send(remote -> remote.sendBinary(msg));
+    }
+
+    private boolean send(final Sender sender) {
+
+        final Session current = session;
+        if (current == null || !current.isOpen()) {
+            return false;
+        }
 
-        String returnValue = "-1";
         try {
-            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-            String uri = serviceUrl + endpoint;
-            Session session = container.connectToServer(this, URI.create(uri));
-            session.getBasicRemote().sendText(msg != null ? msg : "");
-            returnValue = session.getId();
+            synchronized (current) {
+                sender.send(current.getBasicRemote());
+            }
+            return true;
 
-        } catch (DeploymentException | IOException ex) {
+        } catch (IOException ex) {
             LOGGER.warning(ex.getMessage());
+            close(current);
+            return false;
         }
+    }
 
-        return returnValue;
+    private void close(final Session closing) {
+
+        if (closing == session) {
+            session = null;
+            sessionBound = false;
+        }
+        try {
+            closing.close();
+        } catch (IOException ex) {
+            LOGGER.warning(ex.getMessage());
+        }
     }
 
     @PreDestroy
     private void deregister() {
 
         LOGGER.config(() -> "Deregistering " + applicationConfig.getServiceName());
-        sendMessage(STATUS_ENDPOINT + applicationConfig.getServiceName(), null);
+
+        final Session current = session;
+        if (current != null) {
+            sendMessage("");
+            close(current);
+        }
     }
 
     private void readConfiguration() throws SnoopConfigurationException {
@@ -179,6 +496,26 @@ public class SnoopRegistrationClient {
         applicationConfig.setServiceHome(host + ":" + port + "/");
         applicationConfig.setServiceRoot(readProperty("serviceRoot", snoopConfig));
 
+        try {
+            binaryConfigured = "binary".equals(readProperty("wireFormat", snoopConfig));
+        } catch (SnoopConfigurationException e) {
+            LOGGER.config(() -> "No wireFormat configured. Using JSON.");
+        }
+
+        try {
+            applicationConfig.setInstanceId(readProperty("instanceId", snoopConfig));
+        } catch (SnoopConfigurationException e) {
+            LOGGER.config(() -> "No instanceId configured. Using service home.");
+        }
+
+        try {
+            applicationConfig.setLeaseTtl(Long.parseLong(readProperty("leaseTtl", snoopConfig)));
+        } catch (SnoopConfigurationException e) {
+            LOGGER.config(() -> "No leaseTtl configured. Using the lease advised by Snoop.");
+        } catch (NumberFormatException e) {
+            throw new SnoopConfigurationException("leaseTtl must be a number of milliseconds", e);
+        }
+
         LOGGER.config(() -> "application config: " + applicationConfig.toJSON());
 
         serviceUrl = "ws://" + readProperty("snoopService", snoopConfig);
@@ -201,4 +538,10 @@ public class SnoopRegistrationClient {
                 });
         return property;
     }
+
+    @FunctionalInterface
+    private interface Sender {
+
+        void send(RemoteEndpoint.Basic remote) throws IOException;
+    }
 }